@@ -0,0 +1,21 @@
+package com.veeva.vault.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * BenchmarkRunner runs the JMH benchmarks with the GC profiler always attached, so every run reports
+ * allocation rate (gc.alloc.rate.norm) next to throughput and the sampled latency percentiles (p0.99).
+ * Accepts the usual JMH command line, e.g. "java -jar target/benchmarks.jar HandleRequest -p items=500".
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,72 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.veeva.vault.LambdaHandler;
+import com.veeva.vault.SqsBatchEnqueuer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * ColdStartProbe runs in a fresh JVM started by StartupTimeHarness and reports, in milliseconds,
+ * how long each startup phase of LambdaHandler takes: JVM boot, handler construction, optional priming,
+ * the first request and a second, warm request.
+ */
+public class ColdStartProbe {
+    public static void main(String[] args) throws Exception {
+        long mainEntered = System.currentTimeMillis();
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        File fixtureDirectory = new File(args[0]);
+        boolean prime = args.length > 1 && "--prime".equals(args[1]);
+
+        // Fixtures are prepared by the harness so that key generation does not warm up the crypto providers here
+        String certificatePem = new String(Files.readAllBytes(new File(fixtureDirectory, "certificate.pem").toPath()), StandardCharsets.UTF_8);
+        String body = new String(Files.readAllBytes(new File(fixtureDirectory, "body.json").toPath()), StandardCharsets.UTF_8);
+        Properties headerProperties = new Properties();
+        try (InputStream in = new FileInputStream(new File(fixtureDirectory, "headers.properties"))) {
+            headerProperties.load(in);
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (String name : headerProperties.stringPropertyNames()) {
+            headers.put(name, headerProperties.getProperty(name));
+        }
+        APIGatewayV2HTTPEvent event = new APIGatewayV2HTTPEvent();
+        event.setBody(body);
+        event.setHeaders(headers);
+
+        long start = System.nanoTime();
+        StubAmazonS3 s3 = new StubAmazonS3();
+        s3.putObject(null, "PublicKeys/" + SparkFixtures.CERTIFICATE_ID + ".pem", certificatePem);
+        LambdaHandler handler = new LambdaHandler(s3, new SqsBatchEnqueuer(new StubAmazonSQSAsync(), "https://localhost/queue", 0, 1));
+        long constructed = System.nanoTime();
+        if (prime) {
+            handler.prime();
+        }
+        long primed = System.nanoTime();
+        APIGatewayV2HTTPResponse first = handler.handleRequest(event, null);
+        long firstDone = System.nanoTime();
+        APIGatewayV2HTTPResponse second = handler.handleRequest(event, null);
+        long secondDone = System.nanoTime();
+
+        if (first.getStatusCode() != 200 || second.getStatusCode() != 200) {
+            throw new IllegalStateException("Probe request was rejected: " + first.getBody() + " / " + second.getBody());
+        }
+        System.out.println("jvm=" + (mainEntered - jvmStart)
+                + " init=" + millis(constructed - start)
+                + " prime=" + millis(primed - constructed)
+                + " first=" + millis(firstDone - primed)
+                + " second=" + millis(secondDone - firstDone));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
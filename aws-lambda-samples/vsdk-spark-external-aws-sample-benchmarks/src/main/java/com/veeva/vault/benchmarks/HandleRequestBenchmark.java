@@ -0,0 +1,57 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.veeva.vault.LambdaHandler;
+import com.veeva.vault.SqsBatchEnqueuer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * HandleRequestBenchmark measures LambdaHandler.handleRequest end to end with S3 and SQS stubbed in-process.
+ * The certificate is served by the S3 stub, so Vault is never called; after the first request the
+ * public key comes from the in-memory cache, as it does in a warm Lambda container.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class HandleRequestBenchmark {
+    @Param({"1", "50", "500"})
+    public int items;
+
+    private LambdaHandler handler;
+    private APIGatewayV2HTTPEvent event;
+
+    @Setup
+    public void setUp() throws Exception {
+        SparkFixtures fixtures = SparkFixtures.create();
+        StubAmazonS3 s3 = new StubAmazonS3();
+        s3.putObject(null, "PublicKeys/" + SparkFixtures.CERTIFICATE_ID + ".pem", fixtures.getCertificatePem());
+        handler = new LambdaHandler(s3, new SqsBatchEnqueuer(new StubAmazonSQSAsync(), "https://localhost/queue", 0, 1));
+        event = fixtures.event(SparkFixtures.body(items, 1));
+
+        APIGatewayV2HTTPResponse response = handler.handleRequest(event, null);
+        if (response.getStatusCode() != 200) {
+            throw new IllegalStateException("Fixture request was rejected: " + response.getBody());
+        }
+    }
+
+    @Benchmark
+    public APIGatewayV2HTTPResponse handleRequest() {
+        return handler.handleRequest(event, null);
+    }
+}
@@ -0,0 +1,119 @@
+package com.veeva.vault.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.veeva.vault.LoanQuoteGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * LoanQuoteBenchmark measures quote generation for 500 row pages and 50,000 row batches:
+ * the repayment pass over the columns, the whole page through LoanQuoteGenerator, and, as the baseline, a
+ * row-at-a-time loop shaped like generateLoanApprovalQuotes with a clock read and two formats per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class LoanQuoteBenchmark {
+    private static final String[] PERIODS = {"12_months__c", "18_months__c", "24_months__c", "36_months__c", "60_months__c"};
+    private static final String[] ITEMS = {"Car", "Boat", "TV", "Motorbike", ""};
+    private static final DateTimeFormatter REFERENCE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final DateTimeFormatter RECEIVED_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'.000Z'");
+
+    @Param({"500", "50000"})
+    public int rows;
+
+    private ArrayNode page;
+    private double[] amounts;
+    private int[] periodMonths;
+    private long[] monthlyRepayable;
+    private long[] totalRepayable;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        page = JsonNodeFactory.instance.arrayNode(rows);
+        amounts = new double[rows];
+        periodMonths = new int[rows];
+        monthlyRepayable = new long[rows];
+        totalRepayable = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            String period = PERIODS[random.nextInt(PERIODS.length)];
+            ObjectNode row = page.addObject()
+                    .put("id", String.format("V5K%012d", i))
+                    .put("name__v", "Ann")
+                    .put("surname__c", "Smith")
+                    .put("item__c", ITEMS[random.nextInt(ITEMS.length)]);
+            if (i % 4 == 0) {
+                row.put("loan_amount__c", random.nextInt(30000000) / 100.0);
+            } else {
+                row.put("loan_amount__c", random.nextInt(300000));
+            }
+            row.putArray("loan_period_months__c").add(period);
+            row.put("number_of_quotes__c", random.nextInt(3));
+            amounts[i] = row.path("loan_amount__c").asDouble();
+            periodMonths[i] = Integer.parseInt(period.substring(0, 2));
+        }
+    }
+
+    @Benchmark
+    public long[] repayments() {
+        LoanQuoteGenerator.repayments(amounts, periodMonths, rows, 15, monthlyRepayable, totalRepayable);
+        return totalRepayable;
+    }
+
+    @Benchmark
+    public ArrayNode generate() {
+        return LoanQuoteGenerator.generate(page, "Loan re-quote", LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    @Benchmark
+    public ArrayNode rowAtATime() {
+        ArrayNode quotes = JsonNodeFactory.instance.arrayNode();
+        for (JsonNode row : page) {
+            String item = row.path("item__c").asText("");
+            double amount = row.path("loan_amount__c").asDouble();
+            int months = Integer.parseInt(row.path("loan_period_months__c").path(0).asText().substring(0, 2));
+            double total = amount;
+            for (int year = 1; year <= months / 12; year++) {
+                total = Math.floor(total / 100) * 112;
+            }
+            long monthly = (long) Math.floor(total / months);
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            long quoteCount = row.path("number_of_quotes__c").asLong();
+            quotes.addObject()
+                    .put("id", row.path("id").asText())
+                    .put("quote_reference_number__c", (row.path("name__v").asText().charAt(0) + "-"
+                            + row.path("surname__c").asText() + item.substring(0, Math.min(3, item.length()))
+                            + now.format(REFERENCE_TIMESTAMP)).toUpperCase(Locale.ROOT).replace("'", ""))
+                    .put("quote_received_date__c", now.format(RECEIVED_DATE))
+                    .put("interest_rate_annually__c", "12%")
+                    .put("monthly_payment__c", monthly)
+                    .put("total_repayable__c", monthly * months)
+                    .put("approval_status__c", amount > 100000 ? "rejected__c" : "approved__c")
+                    .put("number_of_quotes__c", quoteCount == 0 ? 0 : quoteCount + 1);
+        }
+        return quotes;
+    }
+}
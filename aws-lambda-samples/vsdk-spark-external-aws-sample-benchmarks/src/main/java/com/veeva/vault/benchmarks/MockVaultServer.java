@@ -0,0 +1,213 @@
+package com.veeva.vault.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * MockVaultServer is a local stand-in for the Vault /query, query page and /vobjects endpoints used by
+ * LoanQuoteProcessor. It pages query results with next_page links, adds a fixed latency to every call and records
+ * the last update of every record. The fields of a record depend only on its id, so every query returns the same
+ * record whichever chunk or page it lands in.
+ */
+public class MockVaultServer implements AutoCloseable {
+    private static final Pattern IDS = Pattern.compile("CONTAINS \\((.*)\\) PAGESIZE (\\d+)");
+
+    static {
+        // The JDK server writes the response headers and body separately; without TCP_NODELAY, Nagle's algorithm and
+        // delayed ACKs add tens of milliseconds to every call. Read once, when the first server is created
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int latencyMillis;
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final Map<String, List<String>> cursors = new ConcurrentHashMap<>();
+    private final Map<String, JsonNode> updates = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger cursorIds = new AtomicInteger();
+
+    private MockVaultServer(int latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(handlers);
+    }
+
+    /*
+     * start listens on a free local port
+     * @param latencyMillis, the delay added to every call
+     */
+    public static MockVaultServer start(int latencyMillis) throws IOException {
+        MockVaultServer vault = new MockVaultServer(latencyMillis);
+        vault.server.start();
+        return vault;
+    }
+
+    /*
+     * getHostname returns the scheme, host and port to use as VAULT_HOSTNAME
+     */
+    public String getHostname() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void reset() {
+        cursors.clear();
+        updates.clear();
+        calls.set(0);
+        duplicates.set(0);
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public int getUpdatedRecords() {
+        return updates.size();
+    }
+
+    /*
+     * getUpdates returns the fields last sent for every record updated since the last reset, by record id
+     */
+    public Map<String, JsonNode> getUpdates() {
+        return new HashMap<>(updates);
+    }
+
+    /*
+     * getDuplicateUpdates returns the number of updates to a record that was already updated since the last reset
+     */
+    public int getDuplicateUpdates() {
+        return duplicates.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        calls.incrementAndGet();
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String path = exchange.getRequestURI().getPath();
+        ObjectNode response;
+        if ("POST".equals(exchange.getRequestMethod()) && path.endsWith("/query")) {
+            response = query(URLDecoder.decode(read(exchange).substring(2), "UTF-8"));
+        } else if ("GET".equals(exchange.getRequestMethod()) && path.contains("/query/")) {
+            String cursor = path.substring(path.lastIndexOf('/') + 1);
+            String[] paging = exchange.getRequestURI().getQuery().split("&");
+            int size = Integer.parseInt(paging[0].substring("pagesize=".length()));
+            int offset = Integer.parseInt(paging[1].substring("pageoffset=".length()));
+            response = page(cursor, size, offset);
+        } else {
+            response = update(objectMapper.readTree(read(exchange)));
+        }
+        byte[] body = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private ObjectNode query(String vql) {
+        Matcher matcher = IDS.matcher(vql);
+        if (!matcher.find()) {
+            return failure("MALFORMED_URL", "Unexpected VQL: " + vql);
+        }
+        List<String> ids = new ArrayList<>();
+        for (String literal : matcher.group(1).split(",")) {
+            ids.add(literal.substring(1, literal.length() - 1));
+        }
+        String cursor = Integer.toString(cursorIds.incrementAndGet());
+        cursors.put(cursor, ids);
+        return page(cursor, Integer.parseInt(matcher.group(2)), 0);
+    }
+
+    private ObjectNode page(String cursor, int size, int offset) {
+        List<String> ids = cursors.getOrDefault(cursor, Collections.emptyList());
+        ObjectNode response = objectMapper.createObjectNode().put("responseStatus", "SUCCESS");
+        ObjectNode details = response.putObject("responseDetails")
+                .put("pagesize", size)
+                .put("pageoffset", offset)
+                .put("size", Math.max(0, Math.min(size, ids.size() - offset)))
+                .put("total", ids.size());
+        if (offset + size < ids.size()) {
+            details.put("next_page", "/api/v21.1/query/" + cursor + "?pagesize=" + size + "&pageoffset=" + (offset + size));
+        } else {
+            cursors.remove(cursor);
+        }
+        ArrayNode data = response.putArray("data");
+        for (int i = offset; i < Math.min(offset + size, ids.size()); i++) {
+            String id = ids.get(i);
+            int seed = Math.floorMod(id.hashCode(), 1000);
+            ObjectNode row = data.addObject()
+                    .put("id", id)
+                    .put("name__v", "Ann")
+                    .put("surname__c", "Smith")
+                    .put("item__c", "Car")
+                    .put("loan_amount__c", 1000 + seed * 250)
+                    .putNull("number_of_quotes__c");
+            row.putArray("loan_period_months__c").add(seed % 2 == 0 ? "24_months__c" : "12_months__c");
+        }
+        return response;
+    }
+
+    private ObjectNode update(JsonNode records) {
+        ObjectNode response = objectMapper.createObjectNode().put("responseStatus", "SUCCESS");
+        ArrayNode data = response.putArray("data");
+        for (JsonNode record : records) {
+            if (updates.put(record.path("id").asText(), record) != null) {
+                duplicates.incrementAndGet();
+            }
+            data.addObject().put("responseStatus", "SUCCESS").putObject("data").put("id", record.path("id").asText());
+        }
+        return response;
+    }
+
+    private ObjectNode failure(String type, String message) {
+        ObjectNode response = objectMapper.createObjectNode().put("responseStatus", "FAILURE");
+        response.putArray("errors").addObject().put("type", type).put("message", message);
+        return response;
+    }
+
+    private static String read(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.veeva.vault.SparkPayloadTransport;
+import com.veeva.vault.SqsBatchEnqueuer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/*
+ * PayloadTransportHarness sends 1, 100 and 500 item Spark messages through SparkPayloadTransport as raw, gzip and
+ * claim-check messages, with S3 and SQS stubbed in-process, and reads each one back as SqsMessageHandler does.
+ * The thresholds are set so every message takes the given path. For each it prints the bytes sent to SQS and S3 per
+ * message and the round-trip latency of encode, enqueue, decode and discard.
+ *
+ * Usage: java -cp target/benchmarks.jar com.veeva.vault.benchmarks.PayloadTransportHarness [messages]
+ */
+public class PayloadTransportHarness {
+    private static final int[] ITEMS = {1, 100, 500};
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+        System.out.printf("messages=%d%n", messages);
+        System.out.printf("%-6s %-12s %10s %10s %10s %9s %9s%n",
+                "items", "path", "raw B", "SQS B/msg", "S3 B/msg", "p50 us", "p99 us");
+        for (int items : ITEMS) {
+            String body = SparkFixtures.body(items, 1);
+            // Each path runs twice; the first pass warms it up
+            for (int pass = 0; pass < 2; pass++) {
+                boolean report = pass == 1;
+                run(report, items, "raw", body, messages, Integer.MAX_VALUE, SqsBatchEnqueuer.MAX_BATCH_BYTES);
+                run(report, items, "gzip", body, messages, 0, SqsBatchEnqueuer.MAX_BATCH_BYTES);
+                run(report, items, "claim-check", body, messages, 0, 0);
+            }
+        }
+    }
+
+    private static void run(boolean report, int items, String path, String body, int messages,
+                            int compressThresholdBytes, int maxMessageBytes) {
+        StubAmazonS3 s3 = new StubAmazonS3();
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, "https://localhost/queue", 0, 1);
+        SparkPayloadTransport transport = new SparkPayloadTransport(() -> s3, "spark-bucket",
+                compressThresholdBytes, maxMessageBytes);
+
+        long[] latencies = new long[messages];
+        long sqsBytes = 0;
+        for (int i = 0; i < messages; i++) {
+            long start = System.nanoTime();
+            SendMessageBatchRequestEntry entry = new SendMessageBatchRequestEntry()
+                    .withMessageBody(body)
+                    .addMessageAttributesEntry("object", new MessageAttributeValue()
+                            .withDataType("String").withStringValue("vsdk_loan_approval__c"));
+            if (!transport.encode(entry) || !enqueuer.enqueueEntries(Collections.singletonList(entry)).isEmpty()) {
+                throw new IllegalStateException("Message " + i + " was not enqueued");
+            }
+            MessageAttributeValue encoding = entry.getMessageAttributes().get(SparkPayloadTransport.CONTENT_ENCODING);
+            String contentEncoding = encoding != null ? encoding.getStringValue() : null;
+            String received = transport.decode(entry.getMessageBody(), contentEncoding);
+            transport.discard(entry.getMessageBody(), contentEncoding);
+            latencies[i] = System.nanoTime() - start;
+
+            if (!body.equals(received)) {
+                throw new IllegalStateException("Message " + i + " did not round-trip on the " + path + " path");
+            }
+            sqsBytes += SqsBatchEnqueuer.entrySize(entry);
+        }
+        if (s3.getObjectCount() != 0) {
+            throw new IllegalStateException(s3.getObjectCount() + " claim-checked bodies were not discarded");
+        }
+
+        if (report) {
+            Arrays.sort(latencies);
+            System.out.printf("%-6d %-12s %10d %10d %10d %9.1f %9.1f%n", items, path, body.length(),
+                    sqsBytes / messages, s3.getBytesWritten() / messages,
+                    latencies[messages / 2] / 1e3, latencies[(int) Math.ceil(messages * 0.99) - 1] / 1e3);
+        }
+    }
+}
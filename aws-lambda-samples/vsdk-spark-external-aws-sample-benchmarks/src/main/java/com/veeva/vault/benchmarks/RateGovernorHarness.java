@@ -0,0 +1,130 @@
+package com.veeva.vault.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import com.veeva.vault.VaultRateGovernor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * RateGovernorHarness drives VaultRateGovernor against a local mock Vault with a fixed-window burst limit.
+ * The mock returns decreasing X-VaultAPI-BurstLimitRemaining headers and answers 429 once the window's budget is spent,
+ * so the output shows how close the governor gets to the limit and how often it trips it.
+ *
+ * Usage: java -cp target/benchmarks.jar com.veeva.vault.benchmarks.RateGovernorHarness [calls] [threads] [limit] [windowSeconds] [cutoff]
+ * e.g. "... RateGovernorHarness 600 16 200 10 20" makes 600 calls on 16 threads against 200 calls per 10 seconds
+ * Calls in flight are not yet counted in the remaining budget, so a cutoff below the thread count lets some calls trip the limit.
+ * failedCalls also counts calls the governor answered itself because they would have waited longer than the window.
+ */
+public class RateGovernorHarness {
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int limit = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int windowSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int cutoff = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        MockVault vault = new MockVault(limit, TimeUnit.SECONDS.toNanos(windowSeconds));
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body;
+            int status;
+            int remaining = vault.call();
+            exchange.getResponseHeaders().add("X-VaultAPI-BurstLimit", Integer.toString(limit));
+            exchange.getResponseHeaders().add("X-VaultAPI-BurstLimitRemaining", Integer.toString(Math.max(remaining, 0)));
+            exchange.getResponseHeaders().add("X-VaultAPI-DailyLimitRemaining", "100000");
+            if (remaining < 0) {
+                status = 429;
+                body = "{\"responseStatus\":\"FAILURE\",\"errors\":[{\"type\":\"API_LIMIT_EXCEEDED\"}]}"
+                        .getBytes(StandardCharsets.UTF_8);
+            } else {
+                status = 200;
+                body = "{\"responseStatus\":\"SUCCESS\"}".getBytes(StandardCharsets.UTF_8);
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        ExecutorService handlers = Executors.newFixedThreadPool(threads);
+        server.setExecutor(handlers);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v21.1/query";
+
+        VaultRateGovernor governor = new VaultRateGovernor(cutoff, windowSeconds, windowSeconds, TimeUnit.SECONDS, 5);
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(governor).build();
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        AtomicInteger failed = new AtomicInteger();
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>(calls);
+        for (int i = 0; i < calls; i++) {
+            futures.add(callers.submit(() -> {
+                try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                    if (!response.isSuccessful()) {
+                        failed.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        callers.shutdown();
+        server.stop(0);
+        handlers.shutdown();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+
+        System.out.printf("calls=%d threads=%d limit=%d/%ds cutoff=%d%n", calls, threads, limit, windowSeconds, cutoff);
+        System.out.printf("elapsed=%.1fs rate=%.1f/s (limit %.1f/s) served=%d rejected429=%d failedCalls=%d remaining=%d%n",
+                elapsedSeconds, calls / elapsedSeconds, limit / (double) windowSeconds,
+                vault.served.get(), vault.rejected.get(), failed.get(), governor.getBurstLimitRemaining());
+    }
+
+    /*
+     * MockVault counts calls in fixed windows; call() returns the budget left after the call, negative once it is spent
+     */
+    private static final class MockVault {
+        private final int limit;
+        private final long windowNanos;
+        private final AtomicInteger served = new AtomicInteger();
+        private final AtomicInteger rejected = new AtomicInteger();
+        private long windowStart = System.nanoTime();
+        private int used;
+
+        private MockVault(int limit, long windowNanos) {
+            this.limit = limit;
+            this.windowNanos = windowNanos;
+        }
+
+        private synchronized int call() {
+            long now = System.nanoTime();
+            if (now - windowStart >= windowNanos) {
+                windowStart = now;
+                used = 0;
+            }
+            if (used >= limit) {
+                rejected.incrementAndGet();
+                return -1;
+            }
+            used++;
+            served.incrementAndGet();
+            return limit - used;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.veeva.vault.LambdaHandler;
+import com.veeva.vault.SparkValidatorServer;
+import com.veeva.vault.SqsBatchEnqueuer;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * ServerThroughputHarness compares the two entry points of the validator with S3 and SQS stubbed in-process:
+ * LambdaHandler.handleRequest called directly, as the Lambda runtime does, and SparkValidatorServer over loopback HTTP.
+ * A last pass caps the server's in-flight requests below the client concurrency to show the 429 backpressure.
+ *
+ * Usage: java -cp target/benchmarks.jar com.veeva.vault.benchmarks.ServerThroughputHarness [requests] [concurrency] [items]
+ */
+public class ServerThroughputHarness {
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int items = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        SparkFixtures fixtures = SparkFixtures.create();
+        StubAmazonS3 s3 = new StubAmazonS3();
+        s3.putObject(null, "PublicKeys/" + SparkFixtures.CERTIFICATE_ID + ".pem", fixtures.getCertificatePem());
+        LambdaHandler handler = new LambdaHandler(s3, new SqsBatchEnqueuer(new StubAmazonSQSAsync(), "https://localhost/queue", 0, 1));
+        APIGatewayV2HTTPEvent event = fixtures.event(SparkFixtures.body(items, 1));
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(concurrency, 1, TimeUnit.MINUTES))
+                .build();
+
+        System.out.printf("requests=%d concurrency=%d items=%d%n", requests, concurrency, items);
+        System.out.printf("%-24s %10s %9s %9s %9s  %s%n", "path", "msg/s", "p50 ms", "p99 ms", "max ms", "responses");
+
+        // The first pass of each path warms it up
+        for (int pass = 0; pass < 2; pass++) {
+            String label = pass == 0 ? " (warm-up)" : "";
+            run("lambda handler" + label, requests, concurrency, () -> {
+                int statusCode = handler.handleRequest(event, null).getStatusCode();
+                return Integer.toString(statusCode);
+            });
+            runServer("http server" + label, handler, client, event, requests, concurrency, requests);
+        }
+        runServer("http server, 4 in flight", handler, client, event, requests, concurrency, 4);
+
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private static void runServer(String label, LambdaHandler handler, OkHttpClient client, APIGatewayV2HTTPEvent event,
+                                  int requests, int concurrency, int maxInFlight) throws Exception {
+        SparkValidatorServer server = new SparkValidatorServer(handler, 0, maxInFlight);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getPort() + "/";
+        try {
+            run(label, requests, concurrency, () -> {
+                Request.Builder request = new Request.Builder().url(url).post(RequestBody.create(event.getBody(), JSON));
+                for (Map.Entry<String, String> header : event.getHeaders().entrySet()) {
+                    request.header(header.getKey(), header.getValue());
+                }
+                try (Response response = client.newCall(request.build()).execute()) {
+                    response.body().string();
+                    return Integer.toString(response.code());
+                }
+            });
+        } finally {
+            server.stop(5);
+        }
+    }
+
+    private static void run(String label, int requests, int concurrency, Call call) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long started = System.nanoTime();
+        for (int c = 0; c < concurrency; c++) {
+            clients.execute(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < requests) {
+                    long start = System.nanoTime();
+                    String outcome;
+                    try {
+                        outcome = call.call();
+                    } catch (IOException | RuntimeException e) {
+                        outcome = e.getClass().getSimpleName();
+                    }
+                    latencies[index] = System.nanoTime() - start;
+                    responses.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - started;
+
+        Arrays.sort(latencies);
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> response : responses.entrySet()) {
+            counts.put(response.getKey(), response.getValue().sum());
+        }
+        System.out.printf("%-24s %10.1f %9.2f %9.2f %9.2f  %s%n", label, requests / (elapsed / 1e9),
+                latencies[requests / 2] / 1e6, latencies[(int) Math.ceil(requests * 0.99) - 1] / 1e6,
+                latencies[requests - 1] / 1e6, counts);
+    }
+
+    private interface Call {
+        String call() throws IOException;
+    }
+}
@@ -0,0 +1,143 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.veeva.vault.LambdaHandler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/*
+ * SparkFixtures builds correctly signed Spark requests for local benchmarks and load tests.
+ * A fresh RSA key pair and self-signed certificate are generated with the JDK keytool, so no Vault is needed.
+ */
+public final class SparkFixtures {
+    public static final String CERTIFICATE_ID = "00001";
+    public static final String URL = "https://localhost/message";
+    private static final String STORE_PASSWORD = "changeit";
+
+    private final PrivateKey privateKey;
+    private final PublicKey publicKey;
+    private final String certificatePem;
+
+    private SparkFixtures(PrivateKey privateKey, Certificate certificate) throws GeneralSecurityException {
+        this.privateKey = privateKey;
+        this.publicKey = certificate.getPublicKey();
+        this.certificatePem = "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(certificate.getEncoded())
+                + "\n-----END CERTIFICATE-----\n";
+    }
+
+    /*
+     * create generates a 2048 bit RSA key pair and a self-signed X.509 certificate for it
+     */
+    public static SparkFixtures create() throws IOException, InterruptedException, GeneralSecurityException {
+        File keyStoreFile = File.createTempFile("spark-fixtures", ".p12");
+        if (!keyStoreFile.delete()) {
+            throw new IOException("Unable to prepare " + keyStoreFile);
+        }
+        try {
+            Process keytool = new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin" + File.separator + "keytool").getPath(),
+                    "-genkeypair", "-alias", "spark", "-keyalg", "RSA", "-keysize", "2048",
+                    "-dname", "CN=Spark Benchmark", "-validity", "2",
+                    "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(),
+                    "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD)
+                    .inheritIO()
+                    .start();
+            if (keytool.waitFor() != 0) {
+                throw new IOException("keytool failed with exit code " + keytool.exitValue());
+            }
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try (InputStream in = new FileInputStream(keyStoreFile)) {
+                keyStore.load(in, STORE_PASSWORD.toCharArray());
+            }
+            return new SparkFixtures(
+                    (PrivateKey) keyStore.getKey("spark", STORE_PASSWORD.toCharArray()),
+                    keyStore.getCertificate("spark"));
+        } finally {
+            keyStoreFile.delete();
+        }
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public String getCertificatePem() {
+        return certificatePem;
+    }
+
+    /*
+     * body returns a Spark message body with the given number of record id items
+     * @param items, the number of message items
+     * @param seed, varies the record ids so different messages have different bodies
+     */
+    public static String body(int items, long seed) {
+        StringBuilder body = new StringBuilder(64 + items * 20)
+                .append("{\"message\":{\"attributes\":{\"object\":\"vsdk_loan_approval__c\",")
+                .append("\"event\":\"trigger 'AFTER_INSERT'\",\"sessionId\":\"ABCDEF0123456789\"},\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("\"V5K").append(String.format("%012d", seed * 1000 + i)).append('"');
+        }
+        return body.append("]},\"queue\":\"vsdk_aws_queue_sample__c\"}").toString();
+    }
+
+    /*
+     * signedHeaders returns the headers Vault sends with a Spark message, signed over the body
+     * Header names are lower case, as API Gateway v2 delivers them
+     */
+    public Map<String, String> signedHeaders(String body) throws GeneralSecurityException {
+        return signedHeaders(body, new Date());
+    }
+
+    public Map<String, String> signedHeaders(String body, Date date) throws GeneralSecurityException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("content-type", "application/json");
+        headers.put("x-vaultapisignature-algorithm", "Vault-RSA-SHA256");
+        headers.put("x-vaultapisignature-certificateid", CERTIFICATE_ID);
+        headers.put("x-vaultapisignature-date", format.format(date));
+        headers.put("x-vaultapisignature-url", URL);
+        headers.put("x-vaultapisignature-version", "2.0");
+
+        // prepareDataToVerify is the reference canonicalization; it only builds a string and touches no AWS client
+        String stringToSign = new LambdaHandler(null, null).prepareDataToVerify(headers, body);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(privateKey);
+        signature.update(stringToSign.getBytes(StandardCharsets.UTF_8));
+        headers.put("x-vaultapi-signaturev2", Base64.getEncoder().encodeToString(signature.sign()));
+        return headers;
+    }
+
+    /*
+     * event returns an API Gateway v2 event carrying a signed Spark message
+     */
+    public APIGatewayV2HTTPEvent event(String body) throws GeneralSecurityException {
+        APIGatewayV2HTTPEvent event = new APIGatewayV2HTTPEvent();
+        event.setBody(body);
+        event.setHeaders(signedHeaders(body));
+        return event;
+    }
+}
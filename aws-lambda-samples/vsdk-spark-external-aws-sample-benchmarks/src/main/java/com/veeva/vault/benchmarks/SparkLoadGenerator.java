@@ -0,0 +1,270 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.veeva.vault.LambdaHandler;
+import com.veeva.vault.LoanQuoteProcessor;
+import com.veeva.vault.SqsBatchEnqueuer;
+import com.veeva.vault.SqsMessageHandler;
+import com.veeva.vault.VaultRestClient;
+import okhttp3.OkHttpClient;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * SparkLoadGenerator load-tests the whole pipeline in one JVM: signed Spark messages go through
+ * LambdaHandler.handleRequest, the enqueued messages through SqsMessageHandler in batches of up to 10, and the quote
+ * updates to MockVaultServer. S3 and SQS are the in-process stubs, so no Vault or AWS account is needed.
+ *
+ * Requests start on an open-loop schedule at the target rate and latency is measured from each request's scheduled
+ * start, so a backlog shows up in the percentiles instead of slowing the generator down. A rate of 0 sends as fast
+ * as the concurrency allows. invalidPercent of the requests carry a body that does not match its signature.
+ *
+ * Usage: java -cp target/benchmarks.jar com.veeva.vault.benchmarks.SparkLoadGenerator
+ *        [messages] [rate] [concurrency] [items] [vaultLatencyMillis] [invalidPercent]
+ * e.g. "... SparkLoadGenerator 30000 500 64 50 20 1" for a month-end re-quote burst of 500 messages a second
+ */
+public class SparkLoadGenerator {
+    // Messages are signed up front and reused; signing during the run would compete with the handler for CPU
+    private static final int DISTINCT_MESSAGES = 500;
+    private static final int SQS_BATCH_SIZE = 10;
+    // Concurrent SQS pollers, like the concurrent invocations of the consumer Lambda
+    private static final int CONSUMERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int items = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int vaultLatencyMillis = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+        int invalidPercent = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        // Signed requests, and a copy of each whose body no longer matches the signature
+        SparkFixtures fixtures = SparkFixtures.create();
+        int distinct = Math.min(messages, DISTINCT_MESSAGES);
+        APIGatewayV2HTTPEvent[] events = new APIGatewayV2HTTPEvent[distinct];
+        APIGatewayV2HTTPEvent[] tampered = new APIGatewayV2HTTPEvent[distinct];
+        Map<String, Queue<Long>> scheduledStarts = new ConcurrentHashMap<>();
+        for (int i = 0; i < distinct; i++) {
+            events[i] = fixtures.event(SparkFixtures.body(items, i + 1));
+            tampered[i] = new APIGatewayV2HTTPEvent();
+            tampered[i].setHeaders(events[i].getHeaders());
+            tampered[i].setBody(events[i].getBody().replace("ABCDEF0123456789", "ABCDEF0123456788"));
+            scheduledStarts.put(events[i].getBody(), new ConcurrentLinkedQueue<>());
+        }
+
+        // The pipeline: S3 and SQS stubs in front, the consumer behind the SQS stub, Vault behind the consumer
+        StubAmazonS3 s3 = new StubAmazonS3();
+        s3.putObject(null, "PublicKeys/" + SparkFixtures.CERTIFICATE_ID + ".pem", fixtures.getCertificatePem());
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync(queue::add);
+        LambdaHandler handler = new LambdaHandler(s3, new SqsBatchEnqueuer(sqs, "https://localhost/queue", 0, 1));
+        MockVaultServer vault = MockVaultServer.start(vaultLatencyMillis);
+        OkHttpClient client = new OkHttpClient();
+        ExecutorService vaultCalls = Executors.newFixedThreadPool(16);
+        SqsMessageHandler consumer = new SqsMessageHandler(new LoanQuoteProcessor(
+                new VaultRestClient(client, new ObjectMapper(), vault.getHostname(), null), 200, 100, vaultCalls));
+
+        Recorder handlerLatency = new Recorder(messages);
+        Recorder endToEndLatency = new Recorder(messages);
+        Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        LongAdder handlerAllocated = new LongAdder();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger batches = new AtomicInteger();
+        CountDownLatch sent = new CountDownLatch(messages);
+        long allThreadsAllocatedBefore = allThreadsAllocatedBytes();
+        long started = System.nanoTime();
+
+        List<Thread> pollers = new ArrayList<>();
+        AtomicLong sqsMessageIds = new AtomicLong();
+        for (int c = 0; c < CONSUMERS; c++) {
+            Thread poller = new Thread(() -> {
+                List<String> bodies = new ArrayList<>(SQS_BATCH_SIZE);
+                while (sent.getCount() > 0 || !queue.isEmpty()) {
+                    bodies.clear();
+                    try {
+                        String first = queue.poll(50, TimeUnit.MILLISECONDS);
+                        if (first == null) {
+                            continue;
+                        }
+                        bodies.add(first);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    queue.drainTo(bodies, SQS_BATCH_SIZE - 1);
+
+                    List<SQSEvent.SQSMessage> records = new ArrayList<>(bodies.size());
+                    for (String body : bodies) {
+                        SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+                        record.setMessageId(Long.toString(sqsMessageIds.incrementAndGet()));
+                        record.setBody(body);
+                        records.add(record);
+                    }
+                    SQSEvent event = new SQSEvent();
+                    event.setRecords(records);
+                    SQSBatchResponse response = consumer.handleRequest(event, null);
+                    batches.incrementAndGet();
+
+                    Set<String> failures = new HashSet<>();
+                    for (SQSBatchResponse.BatchItemFailure failure : response.getBatchItemFailures()) {
+                        failures.add(failure.getItemIdentifier());
+                    }
+                    long finished = System.nanoTime();
+                    for (SQSEvent.SQSMessage record : records) {
+                        Long scheduled = scheduledStarts.get(record.getBody()).poll();
+                        if (failures.contains(record.getMessageId())) {
+                            failed.incrementAndGet();
+                        } else {
+                            processed.incrementAndGet();
+                            if (scheduled != null) {
+                                endToEndLatency.record(finished - scheduled);
+                            }
+                        }
+                    }
+                }
+            }, "sqs-poller-" + c);
+            poller.start();
+            pollers.add(poller);
+        }
+
+        ExecutorService senders = Executors.newFixedThreadPool(concurrency);
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        for (int i = 0; i < messages; i++) {
+            long scheduled = started + i * intervalNanos;
+            if (rate > 0) {
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            boolean invalid = i % 100 < invalidPercent;
+            APIGatewayV2HTTPEvent event = (invalid ? tampered : events)[i % distinct];
+            senders.execute(() -> {
+                long start = rate > 0 ? scheduled : System.nanoTime();
+                if (!invalid) {
+                    scheduledStarts.get(event.getBody()).add(start);
+                }
+                long allocatedBefore = threadAllocatedBytes();
+                String outcome;
+                try {
+                    APIGatewayV2HTTPResponse response = handler.handleRequest(event, null);
+                    outcome = response.getStatusCode() + " " + response.getBody();
+                } catch (RuntimeException e) {
+                    outcome = "exception " + e.getClass().getSimpleName();
+                }
+                handlerLatency.record(System.nanoTime() - start);
+                handlerAllocated.add(threadAllocatedBytes() - allocatedBefore);
+                outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+                sent.countDown();
+            });
+        }
+        sent.await();
+        long sendNanos = System.nanoTime() - started;
+        for (Thread poller : pollers) {
+            poller.join();
+        }
+        long totalNanos = System.nanoTime() - started;
+        long allThreadsAllocated = allThreadsAllocatedBytes() - allThreadsAllocatedBefore;
+
+        senders.shutdown();
+        vaultCalls.shutdown();
+        vault.close();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+
+        System.out.printf("messages=%d rate=%s concurrency=%d items=%d vaultLatency=%dms invalid=%d%%%n",
+                messages, rate > 0 ? rate + "/s" : "unbounded", concurrency, items, vaultLatencyMillis, invalidPercent);
+        System.out.printf("handler throughput     %10.1f msg/s%n", messages / (sendNanos / 1e9));
+        System.out.printf("end-to-end throughput  %10.1f msg/s (%d processed in %.1f s)%n",
+                processed.get() / (totalNanos / 1e9), processed.get(), totalNanos / 1e9);
+        System.out.printf("%-12s %9s %9s %9s %9s %9s%n", "latency ms", "p50", "p90", "p99", "p99.9", "max");
+        handlerLatency.print("handler");
+        endToEndLatency.print("end-to-end");
+        System.out.println("handler responses");
+        for (Map.Entry<String, LongAdder> outcome : new TreeMap<>(outcomes).entrySet()) {
+            System.out.printf("  %-24s %d%n", outcome.getKey(), outcome.getValue().sum());
+        }
+        System.out.printf("consumer: processed=%d failed=%d sqsBatches=%d vaultCalls=%d recordsUpdated=%d%n",
+                processed.get(), failed.get(), batches.get(), vault.getCalls(), vault.getUpdatedRecords());
+        System.out.printf("allocation: handler %.1f KB/msg, all threads incl. stand-ins %.1f KB/msg%n",
+                handlerAllocated.sum() / 1024.0 / messages, allThreadsAllocated / 1024.0 / messages);
+    }
+
+    private static long threadAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    /*
+     * allThreadsAllocatedBytes sums the allocation of the live threads; threads that exit during the run are missed
+     */
+    private static long allThreadsAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    /*
+     * Recorder keeps every latency sample, so the percentiles are exact
+     */
+    private static final class Recorder {
+        private final long[] nanos;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Recorder(int capacity) {
+            this.nanos = new long[capacity];
+        }
+
+        private void record(long elapsedNanos) {
+            int index = count.getAndIncrement();
+            if (index < nanos.length) {
+                nanos[index] = elapsedNanos;
+            }
+        }
+
+        private void print(String name) {
+            int size = Math.min(count.get(), nanos.length);
+            if (size == 0) {
+                System.out.printf("%-12s %9s%n", name, "-");
+                return;
+            }
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            System.out.printf("%-12s %9.2f %9.2f %9.2f %9.2f %9.2f%n", name,
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[size - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+    }
+}
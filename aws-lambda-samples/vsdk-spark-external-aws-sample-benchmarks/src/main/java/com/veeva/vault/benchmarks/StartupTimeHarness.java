@@ -0,0 +1,124 @@
+package com.veeva.vault.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * StartupTimeHarness measures LambdaHandler cold starts locally by launching ColdStartProbe in fresh JVMs.
+ *
+ * Usage: java -cp target/benchmarks.jar com.veeva.vault.benchmarks.StartupTimeHarness [runs] [--prime] [-- jvm options]
+ * e.g. "... StartupTimeHarness 20 --prime -- -XX:TieredStopAtLevel=1 -Xshare:auto"
+ *
+ * --prime calls LambdaHandler.prime() before the first request, which is the work SnapStart moves into the snapshot;
+ * comparing "first" with and without it shows what priming saves on a restored container.
+ */
+public class StartupTimeHarness {
+    private static final String[] PHASES = {"jvm", "init", "prime", "first", "second", "process"};
+
+    public static void main(String[] args) throws Exception {
+        int runs = 10;
+        boolean prime = false;
+        List<String> jvmOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--".equals(args[i])) {
+                for (int j = i + 1; j < args.length; j++) {
+                    jvmOptions.add(args[j]);
+                }
+                break;
+            } else if ("--prime".equals(args[i])) {
+                prime = true;
+            } else {
+                runs = Integer.parseInt(args[i]);
+            }
+        }
+
+        File fixtureDirectory = writeFixtures();
+        Map<String, List<Double>> samples = new LinkedHashMap<>();
+        for (String phase : PHASES) {
+            samples.put(phase, new ArrayList<>());
+        }
+
+        for (int run = 0; run < runs; run++) {
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+            command.addAll(jvmOptions);
+            command.add("-Dlog4j.configuration=benchmark-log4j.properties");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ColdStartProbe.class.getName());
+            command.add(fixtureDirectory.getPath());
+            if (prime) {
+                command.add("--prime");
+            }
+
+            long started = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String result = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("jvm=")) {
+                        result = line;
+                    } else {
+                        System.err.println(line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || result == null) {
+                throw new IllegalStateException("Probe run " + run + " failed");
+            }
+            samples.get("process").add((System.nanoTime() - started) / 1_000_000.0);
+            for (String field : result.split(" ")) {
+                String[] pair = field.split("=");
+                samples.get(pair[0]).add(Double.parseDouble(pair[1]));
+            }
+        }
+
+        System.out.println(String.format("%d runs%s %s", runs, prime ? " (primed)" : "", jvmOptions));
+        System.out.println(String.format("%-8s %10s %10s %10s", "phase", "p50 ms", "p90 ms", "max ms"));
+        for (Map.Entry<String, List<Double>> phase : samples.entrySet()) {
+            List<Double> values = phase.getValue();
+            Collections.sort(values);
+            System.out.println(String.format("%-8s %10.1f %10.1f %10.1f", phase.getKey(),
+                    percentile(values, 0.50), percentile(values, 0.90), values.get(values.size() - 1)));
+        }
+    }
+
+    /*
+     * writeFixtures signs one 50 item Spark message and writes the certificate, body and headers for the probes
+     */
+    private static File writeFixtures() throws Exception {
+        SparkFixtures fixtures = SparkFixtures.create();
+        String body = SparkFixtures.body(50, 1);
+        File directory = Files.createTempDirectory("cold-start").toFile();
+        directory.deleteOnExit();
+
+        Files.write(new File(directory, "certificate.pem").toPath(), fixtures.getCertificatePem().getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(directory, "body.json").toPath(), body.getBytes(StandardCharsets.UTF_8));
+        Properties headers = new Properties();
+        headers.putAll(fixtures.signedHeaders(body));
+        try (OutputStream out = new FileOutputStream(new File(directory, "headers.properties"))) {
+            headers.store(out, null);
+        }
+        for (File file : directory.listFiles()) {
+            file.deleteOnExit();
+        }
+        return directory;
+    }
+
+    private static double percentile(List<Double> sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}
@@ -0,0 +1,120 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * StubAmazonS3 is an in-process S3 holding objects in memory; only the calls LambdaHandler and SparkPayloadTransport
+ * make are supported
+ */
+public class StubAmazonS3 extends AbstractAmazonS3 {
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName) {
+        return objects.containsKey(objectName);
+    }
+
+    @Override
+    public String getObjectAsString(String bucketName, String key) {
+        byte[] content = read(key);
+        return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+        byte[] content = read(key);
+        if (content == null) {
+            AmazonS3Exception notFound = new AmazonS3Exception("The specified key does not exist.");
+            notFound.setStatusCode(404);
+            notFound.setErrorCode("NoSuchKey");
+            throw notFound;
+        }
+        S3Object object = new S3Object();
+        object.setBucketName(bucketName);
+        object.setKey(key);
+        object.setObjectContent(new ByteArrayInputStream(content));
+        return object;
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, String content) {
+        write(key, content.getBytes(StandardCharsets.UTF_8));
+        return new PutObjectResult();
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        try {
+            while ((read = input.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new AmazonS3Exception(e.getMessage());
+        }
+        write(key, content.toByteArray());
+        return new PutObjectResult();
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        objects.remove(key);
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /*
+     * getObjectCount returns the number of objects currently stored
+     */
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    private byte[] read(String key) {
+        reads.incrementAndGet();
+        byte[] content = objects.get(key);
+        if (content != null) {
+            bytesRead.addAndGet(content.length);
+        }
+        return content;
+    }
+
+    private void write(String key, byte[] content) {
+        writes.incrementAndGet();
+        bytesWritten.addAndGet(content.length);
+        objects.put(key, content);
+    }
+}
@@ -0,0 +1,58 @@
+package com.veeva.vault.benchmarks;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * StubAmazonSQSAsync is an in-process SQS that accepts every batch entry and counts calls, messages and bytes.
+ * A receiver, when given, is handed each accepted message body, e.g. to feed a local consumer.
+ */
+public class StubAmazonSQSAsync extends AbstractAmazonSQSAsync {
+    private final Consumer<String> receiver;
+    private final AtomicLong batchCalls = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+
+    public StubAmazonSQSAsync() {
+        this(body -> { });
+    }
+
+    public StubAmazonSQSAsync(Consumer<String> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public Future<SendMessageBatchResult> sendMessageBatchAsync(SendMessageBatchRequest request) {
+        batchCalls.incrementAndGet();
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>(request.getEntries().size());
+        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+            messages.incrementAndGet();
+            bodyBytes.addAndGet(entry.getMessageBody().length());
+            successful.add(new SendMessageBatchResultEntry().withId(entry.getId()).withMessageId(entry.getId()));
+            receiver.accept(entry.getMessageBody());
+        }
+        return CompletableFuture.completedFuture(new SendMessageBatchResult().withSuccessful(successful));
+    }
+
+    public long getBatchCalls() {
+        return batchCalls.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getBodyBytes() {
+        return bodyBytes.get();
+    }
+}
@@ -0,0 +1,83 @@
+package com.veeva.vault.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.veeva.vault.LambdaHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ValidationBenchmark measures the individual stages of Spark message validation for 1, 50 and 500 item messages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ValidationBenchmark {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Param({"1", "50", "500"})
+    public int items;
+
+    private LambdaHandler handler;
+    private Map<String, String> headers;
+    private String body;
+    private String stringToVerify;
+    private String signature;
+    private PublicKey publicKey;
+    private byte[] certificateFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        SparkFixtures fixtures = SparkFixtures.create();
+        handler = new LambdaHandler(new StubAmazonS3(), null);
+        body = SparkFixtures.body(items, 1);
+        headers = fixtures.signedHeaders(body);
+        stringToVerify = handler.prepareDataToVerify(headers, body);
+        signature = headers.get("x-vaultapi-signaturev2");
+        publicKey = fixtures.getPublicKey();
+        certificateFile = fixtures.getCertificatePem().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String prepareDataToVerify() {
+        return handler.prepareDataToVerify(headers, body);
+    }
+
+    @Benchmark
+    public boolean verifySignUsingCrypto() {
+        return handler.verifySignUsingCrypto(stringToVerify, signature, publicKey);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return handler.validate(headers, body, publicKey);
+    }
+
+    @Benchmark
+    public PublicKey parsePublicKey() {
+        return handler.parsePublicKey(certificateFile);
+    }
+
+    @Benchmark
+    public JsonNode parseBody() throws IOException {
+        return objectMapper.readTree(body);
+    }
+}
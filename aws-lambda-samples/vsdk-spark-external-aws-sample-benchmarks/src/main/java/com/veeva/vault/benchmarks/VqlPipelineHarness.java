@@ -0,0 +1,106 @@
+package com.veeva.vault.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.veeva.vault.LoanQuoteProcessor;
+import com.veeva.vault.VaultRestClient;
+import okhttp3.OkHttpClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * VqlPipelineHarness runs LoanQuoteProcessor against MockVaultServer, a local mock of the Vault /query, query page
+ * and /vobjects endpoints that pages its results with next_page links and adds a fixed latency to every call.
+ * The first run is one sequential query; its updates are the reference. Every chunked, concurrent run must then update
+ * the same records exactly once with the same fields, or the harness fails with an IllegalStateException. The quote
+ * reference number and received date hold the time of the quote and are left out of the comparison.
+ *
+ * Usage: java -cp target/benchmarks.jar com.veeva.vault.benchmarks.VqlPipelineHarness [ids] [pageSize] [latencyMillis]
+ */
+public class VqlPipelineHarness {
+    private static final String OBJECT_NAME = "vsdk_loan_approval__c";
+    private static final String[] QUOTE_TIME_FIELDS = {"quote_reference_number__c", "quote_received_date__c"};
+
+    public static void main(String[] args) throws Exception {
+        int idCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int latencyMillis = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        List<String> ids = new ArrayList<>(idCount);
+        for (int i = 0; i < idCount; i++) {
+            ids.add(String.format("V5K%012d", i));
+        }
+
+        MockVaultServer vault = MockVaultServer.start(latencyMillis);
+        OkHttpClient client = new OkHttpClient();
+        try {
+            run(vault, client, ids, pageSize, latencyMillis);
+        } finally {
+            vault.close();
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    private static void run(MockVaultServer vault, OkHttpClient client, List<String> ids, int pageSize,
+                            int latencyMillis) throws Exception {
+        int idCount = ids.size();
+        String hostname = vault.getHostname();
+
+        System.out.printf("ids=%d pageSize=%d latency=%dms%n", idCount, pageSize, latencyMillis);
+        // The first configuration is the serial path the chunked ones are checked against
+        int[][] configurations = {{idCount, 1}, {100, 4}, {100, 8}, {50, 8}};
+        Map<String, JsonNode> serialUpdates = null;
+        for (int[] configuration : configurations) {
+            int chunkSize = configuration[0];
+            int parallelism = configuration[1];
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            LoanQuoteProcessor processor = new LoanQuoteProcessor(
+                    new VaultRestClient(client, new ObjectMapper(), hostname, null), pageSize, chunkSize, executor);
+
+            vault.reset();
+            long start = System.nanoTime();
+            boolean processed = processor.process(OBJECT_NAME, ids, "Loan re-quote", "SESSION");
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            executor.shutdown();
+
+            System.out.printf("chunk=%-4d threads=%d processed=%s elapsed=%dms calls=%d updated=%d/%d duplicates=%d%n",
+                    chunkSize, parallelism, processed, elapsedMillis, vault.getCalls(), vault.getUpdatedRecords(), idCount,
+                    vault.getDuplicateUpdates());
+
+            Map<String, JsonNode> updates = withoutQuoteTime(vault.getUpdates());
+            if (!processed || vault.getDuplicateUpdates() != 0 || updates.size() != idCount) {
+                throw new IllegalStateException("chunk=" + chunkSize + " threads=" + parallelism + " updated " +
+                        updates.size() + " of " + idCount + " records with " + vault.getDuplicateUpdates() +
+                        " duplicate(s), processed=" + processed);
+            }
+            if (serialUpdates == null) {
+                serialUpdates = updates;
+            } else if (!serialUpdates.equals(updates)) {
+                for (Map.Entry<String, JsonNode> serial : serialUpdates.entrySet()) {
+                    if (!serial.getValue().equals(updates.get(serial.getKey()))) {
+                        throw new IllegalStateException("chunk=" + chunkSize + " threads=" + parallelism +
+                                " updated " + serial.getKey() + " to " + updates.get(serial.getKey()) +
+                                ", the serial path to " + serial.getValue());
+                    }
+                }
+                throw new IllegalStateException("chunk=" + chunkSize + " threads=" + parallelism +
+                        " updated other records than the serial path");
+            }
+        }
+        System.out.println("Chunked queries updated the same records as the serial path");
+    }
+
+    private static Map<String, JsonNode> withoutQuoteTime(Map<String, JsonNode> updates) {
+        for (JsonNode record : updates.values()) {
+            ((ObjectNode) record).remove(Arrays.asList(QUOTE_TIME_FIELDS));
+        }
+        return updates;
+    }
+}
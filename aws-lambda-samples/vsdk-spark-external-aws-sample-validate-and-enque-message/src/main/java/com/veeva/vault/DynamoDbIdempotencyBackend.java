@@ -0,0 +1,114 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * DynamoDbIdempotencyBackend stores idempotency records in a DynamoDB table with a string partition key "id".
+ * expiresAt is an epoch second, so it can also be the table's TTL attribute and DynamoDB removes old records.
+ * Works against DynamoDB Local by pointing the client at its endpoint.
+ */
+public class DynamoDbIdempotencyBackend implements IdempotencyBackend {
+    private static final String KEY = "id";
+    private static final String STATUS = "status";
+    private static final String EXPIRES_AT = "expiresAt";
+    private static final String NOT_PRESENT_OR_EXPIRED = "attribute_not_exists(#id) OR #expiresAt < :now";
+
+    private final Lazy<AmazonDynamoDB> dynamoDb;
+    private final String tableName;
+
+    public DynamoDbIdempotencyBackend(AmazonDynamoDB dynamoDb, String tableName) {
+        this(Lazy.value(dynamoDb), tableName);
+    }
+
+    /*
+     * @param dynamoDb, creates the client; called again by reconnect
+     * @param tableName, the table holding the idempotency records
+     */
+    public DynamoDbIdempotencyBackend(Supplier<AmazonDynamoDB> dynamoDb, String tableName) {
+        this(Lazy.of(dynamoDb), tableName);
+    }
+
+    private DynamoDbIdempotencyBackend(Lazy<AmazonDynamoDB> dynamoDb, String tableName) {
+        this.dynamoDb = dynamoDb;
+        this.tableName = tableName;
+    }
+
+    /*
+     * reconnect shuts the client down and creates a new one, unless the client was passed in by the caller
+     */
+    @Override
+    public void reconnect() {
+        AmazonDynamoDB previous = dynamoDb.reset();
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String status, long expiresAt, long now) {
+        Map<String, String> names = new HashMap<>();
+        names.put("#id", KEY);
+        names.put("#expiresAt", EXPIRES_AT);
+        try {
+            dynamoDb.get().putItem(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(item(key, status, expiresAt))
+                    .withConditionExpression(NOT_PRESENT_OR_EXPIRED)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(Collections.singletonMap(":now", new AttributeValue().withN(Long.toString(now)))));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    /*
+     * getStatus uses a strongly consistent read, so a record written by another container is seen at once;
+     * an expired record DynamoDB has not removed yet counts as none
+     */
+    @Override
+    public String getStatus(String key, long now) {
+        Map<String, AttributeValue> item = dynamoDb.get().getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(Collections.singletonMap(KEY, new AttributeValue().withS(key)))
+                .withConsistentRead(true))
+                .getItem();
+        if (item == null || !item.containsKey(STATUS) || !item.containsKey(EXPIRES_AT)
+                || Long.parseLong(item.get(EXPIRES_AT).getN()) < now) {
+            return null;
+        }
+        return item.get(STATUS).getS();
+    }
+
+    @Override
+    public void put(String key, String status, long expiresAt) {
+        dynamoDb.get().putItem(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(item(key, status, expiresAt)));
+    }
+
+    @Override
+    public void delete(String key) {
+        dynamoDb.get().deleteItem(new DeleteItemRequest()
+                .withTableName(tableName)
+                .withKey(Collections.singletonMap(KEY, new AttributeValue().withS(key))));
+    }
+
+    private static Map<String, AttributeValue> item(String key, String status, long expiresAt) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(KEY, new AttributeValue().withS(key));
+        item.put(STATUS, new AttributeValue().withS(status));
+        item.put(EXPIRES_AT, new AttributeValue().withN(Long.toString(expiresAt)));
+        return item;
+    }
+}
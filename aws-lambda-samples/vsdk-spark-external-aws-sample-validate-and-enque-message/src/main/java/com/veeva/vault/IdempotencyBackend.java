@@ -0,0 +1,42 @@
+package com.veeva.vault;
+
+/*
+ * IdempotencyBackend is the persistent tier of the IdempotencyStore: a table of keys with a status and an expiry,
+ * shared by every container of the function.
+ */
+public interface IdempotencyBackend {
+
+    /*
+     * putIfAbsent writes the record only if the key has no record or its record has expired
+     * @param key, the idempotency key
+     * @param status, the status to store
+     * @param expiresAt, the epoch second after which the record no longer counts
+     * @param now, the current epoch second
+     * @returns written, false if an unexpired record already exists
+     */
+    boolean putIfAbsent(String key, String status, long expiresAt, long now);
+
+    /*
+     * getStatus reads the status of the key's record
+     * @param key, the idempotency key
+     * @param now, the current epoch second
+     * @returns status, the status of an unexpired record, or null if the key has none
+     */
+    String getStatus(String key, long now);
+
+    /*
+     * put writes the record unconditionally
+     */
+    void put(String key, String status, long expiresAt);
+
+    /*
+     * delete removes the record of the key, if any
+     */
+    void delete(String key);
+
+    /*
+     * reconnect replaces the backend's connections, e.g. after a snapshot restore; a backend without any does nothing
+     */
+    default void reconnect() {
+    }
+}
@@ -0,0 +1,182 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import org.apache.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * IdempotencyStore drops repeated deliveries of the same Spark message.
+ * Keys are the Spark message id, when the message carries one, plus a SHA-256 hash of the body.
+ * Completed keys are kept in an in-memory LRU, so most duplicates are dropped without a call to the backend.
+ * The backend decides who processes a key: begin() takes a lease with a conditional put, complete() marks the key
+ * done for the TTL and release() frees it again so a failed attempt can be retried.
+ * Backend errors are logged and treated as "not a duplicate", so an outage never loses a message.
+ */
+public class IdempotencyStore {
+    public static final String IN_PROGRESS = "IN_PROGRESS";
+    public static final String COMPLETED = "COMPLETED";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static Logger logger = Logger.getLogger(IdempotencyStore.class);
+
+    private final IdempotencyBackend backend;
+    private final long leaseSeconds;
+    private final long ttlSeconds;
+    private final Map<String, Long> completed;
+    private final AtomicLong hits = new AtomicLong();
+
+    /*
+     * @param backend, the persistent tier shared by all containers
+     * @param cacheEntries, the number of completed keys kept in memory
+     * @param leaseSeconds, how long a key stays claimed by an attempt that neither completes nor releases it
+     * @param ttlSeconds, how long a completed key is remembered
+     */
+    public IdempotencyStore(IdempotencyBackend backend, int cacheEntries, long leaseSeconds, long ttlSeconds) {
+        this.backend = backend;
+        this.leaseSeconds = leaseSeconds;
+        this.ttlSeconds = ttlSeconds;
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > cacheEntries;
+            }
+        });
+    }
+
+    /*
+     * fromEnvironment builds the store from the IDEMPOTENCY_* Lambda environment variables:
+     * a DynamoDB table when IDEMPOTENCY_TABLE is set, otherwise this container's memory
+     * @returns store, or null when IDEMPOTENCY_ENABLED is false
+     */
+    public static IdempotencyStore fromEnvironment() {
+        if ("false".equalsIgnoreCase(System.getenv("IDEMPOTENCY_ENABLED"))) {
+            return null;
+        }
+        String tableName = System.getenv("IDEMPOTENCY_TABLE");
+        IdempotencyBackend backend = tableName == null || tableName.isEmpty()
+                ? new InMemoryIdempotencyBackend()
+                : new DynamoDbIdempotencyBackend(() -> AmazonDynamoDBClientBuilder.standard().build(), tableName);
+        return new IdempotencyStore(backend,
+                LambdaHandler.getIntEnv("IDEMPOTENCY_CACHE_ENTRIES", 10000),
+                LambdaHandler.getIntEnv("IDEMPOTENCY_LEASE_SECONDS", 900),
+                LambdaHandler.getIntEnv("IDEMPOTENCY_TTL_SECONDS", 86400));
+    }
+
+    /*
+     * key builds the idempotency key of a message
+     * @param messageId, the Spark message id, may be null
+     * @param body, the message body
+     * @returns key, "<messageId>:<sha-256 of the body>" or just the hash
+     */
+    public static String key(String messageId, String body) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder(65 + (messageId == null ? 0 : messageId.length()));
+        if (messageId != null) {
+            key.append(messageId).append(':');
+        }
+        for (byte b : digest) {
+            key.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return key.toString();
+    }
+
+    /*
+     * isCompleted checks the in-memory tier only; a cheap test before any other work
+     * @returns completed, true if this container completed the key within the TTL
+     */
+    public boolean isCompleted(String key) {
+        Long expiresAt = completed.get(key);
+        if (expiresAt != null && expiresAt >= now()) {
+            hits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * begin claims the key for processing
+     * @returns claimed, false if the key is completed or claimed by another attempt
+     */
+    public boolean begin(String key) {
+        if (isCompleted(key)) {
+            return false;
+        }
+        long now = now();
+        try {
+            if (backend.putIfAbsent(key, IN_PROGRESS, now + leaseSeconds, now)) {
+                return true;
+            }
+            hits.incrementAndGet();
+            return false;
+        } catch (RuntimeException e) {
+            logger.error("Idempotency check failed, processing anyway: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /*
+     * status tells a key completed by any container from one another attempt still holds, e.g. after begin() refused it
+     * @returns status, COMPLETED, IN_PROGRESS, or null if the key is free or the backend could not be read
+     */
+    public String status(String key) {
+        if (isCompleted(key)) {
+            return COMPLETED;
+        }
+        try {
+            return backend.getStatus(key, now());
+        } catch (RuntimeException e) {
+            logger.error("Unable to read message status: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * complete marks the key as done, so later deliveries are dropped for the TTL
+     */
+    public void complete(String key) {
+        long expiresAt = now() + ttlSeconds;
+        completed.put(key, expiresAt);
+        try {
+            backend.put(key, COMPLETED, expiresAt);
+        } catch (RuntimeException e) {
+            logger.error("Unable to record completed message: " + e.getMessage());
+        }
+    }
+
+    /*
+     * release frees a claimed key after a failed attempt, so a redelivery is processed
+     */
+    public void release(String key) {
+        try {
+            backend.delete(key);
+        } catch (RuntimeException e) {
+            logger.error("Unable to release message: " + e.getMessage());
+        }
+    }
+
+    /*
+     * reconnect replaces the backend's connections; the completed keys held in memory are kept
+     */
+    public void reconnect() {
+        backend.reconnect();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,55 @@
+package com.veeva.vault;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * InMemoryIdempotencyBackend keeps the idempotency records of this container only.
+ * It is the default when no table is configured, and a fake of the DynamoDB backend for local runs.
+ */
+public class InMemoryIdempotencyBackend implements IdempotencyBackend {
+    private final ConcurrentMap<String, Entry> records = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean putIfAbsent(String key, String status, long expiresAt, long now) {
+        boolean[] written = {false};
+        records.compute(key, (k, current) -> {
+            if (current != null && current.expiresAt >= now) {
+                return current;
+            }
+            written[0] = true;
+            return new Entry(status, expiresAt);
+        });
+        return written[0];
+    }
+
+    @Override
+    public String getStatus(String key, long now) {
+        Entry record = records.get(key);
+        return record != null && record.expiresAt >= now ? record.status : null;
+    }
+
+    @Override
+    public void put(String key, String status, long expiresAt) {
+        records.put(key, new Entry(status, expiresAt));
+    }
+
+    @Override
+    public void delete(String key) {
+        records.remove(key);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    private static final class Entry {
+        private final String status;
+        private final long expiresAt;
+
+        Entry(String status, long expiresAt) {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.veeva.vault;
+
+/*
+ * InvalidSparkMessageException is thrown when a Spark message body is too large or does not have the expected envelope
+ */
+public class InvalidSparkMessageException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidSparkMessageException(String message) {
+        super(message);
+    }
+}
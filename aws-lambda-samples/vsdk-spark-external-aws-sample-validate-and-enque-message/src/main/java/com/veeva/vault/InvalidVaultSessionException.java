@@ -0,0 +1,13 @@
+package com.veeva.vault;
+
+/*
+ * InvalidVaultSessionException is thrown when Vault rejects the session id of a call with INVALID_SESSION_ID,
+ * so the caller can authenticate again instead of treating it like any other failed call
+ */
+public class InvalidVaultSessionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidVaultSessionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,186 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * InvocationMetrics collects the timers, counters and sizes of one invocation and writes them as a single
+ * CloudWatch Embedded Metric Format (EMF) log line when the invocation ends.
+ * The metrics of the invocation running on the current thread are available through current(), so code deep in the
+ * certificate lookup can record into them without every method taking a metrics parameter.
+ */
+public class InvocationMetrics {
+    public static final String MILLISECONDS = "Milliseconds";
+    public static final String COUNT = "Count";
+    public static final String BYTES = "Bytes";
+
+    private static final String NAMESPACE = System.getenv("METRICS_NAMESPACE") != null
+            ? System.getenv("METRICS_NAMESPACE")
+            : "VaultSparkValidator";
+    private static final String FUNCTION_NAME = System.getenv("AWS_LAMBDA_FUNCTION_NAME") != null
+            ? System.getenv("AWS_LAMBDA_FUNCTION_NAME")
+            : "local";
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ThreadLocal<InvocationMetrics> CURRENT = new ThreadLocal<>();
+    private static final InvocationMetrics DISABLED = new InvocationMetrics(false);
+    private static Logger logger = Logger.getLogger(InvocationMetrics.class);
+    // EMF lines must be plain JSON, so they go to a logger whose appender writes the message only (see log4j.properties)
+    private static Logger emfLogger = Logger.getLogger(InvocationMetrics.class.getName() + ".EMF");
+
+    private final boolean enabled;
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+
+    private InvocationMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /*
+     * begin starts collecting metrics for the invocation on the current thread
+     * @returns metrics, the metrics of the new invocation
+     */
+    public static InvocationMetrics begin() {
+        InvocationMetrics metrics = new InvocationMetrics(true);
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    /*
+     * current returns the metrics of the invocation on the current thread, or a no-op instance outside an invocation
+     */
+    public static InvocationMetrics current() {
+        InvocationMetrics metrics = CURRENT.get();
+        return metrics != null ? metrics : DISABLED;
+    }
+
+    /*
+     * bind makes these metrics current on the calling thread, for work an invocation hands to a worker thread
+     */
+    public void bind() {
+        if (enabled) {
+            CURRENT.set(this);
+        }
+    }
+
+    /*
+     * unbind ends a bind on the calling thread
+     */
+    public void unbind() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /*
+     * time records the milliseconds elapsed since startNanos, adding to any earlier time recorded under the name
+     * @param name, the metric name
+     * @param startNanos, a System.nanoTime() value taken when the timed work started
+     */
+    public void time(String name, long startNanos) {
+        add(name, (System.nanoTime() - startNanos) / (double) TimeUnit.MILLISECONDS.toNanos(1), MILLISECONDS);
+    }
+
+    /*
+     * count adds one to a counter
+     */
+    public void count(String name) {
+        add(name, 1, COUNT);
+    }
+
+    /*
+     * add adds the value to the metric, creating it if this invocation has not recorded it yet
+     */
+    public synchronized void add(String name, double value, String unit) {
+        if (!enabled) {
+            return;
+        }
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metrics.put(name, new Metric(value, unit));
+        } else {
+            metric.value += value;
+        }
+    }
+
+    /*
+     * put sets the metric to the value, replacing any earlier value
+     */
+    public synchronized void put(String name, double value, String unit) {
+        if (!enabled) {
+            return;
+        }
+        metrics.put(name, new Metric(value, unit));
+    }
+
+    /*
+     * flush writes the collected metrics as one EMF line and ends the invocation on the current thread
+     */
+    public synchronized void flush() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        if (!enabled || metrics.isEmpty() || !emfLogger.isInfoEnabled()) {
+            return;
+        }
+        try {
+            emfLogger.info(toEmf(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.error("Unable to write metrics: " + e.getMessage());
+        }
+        metrics.clear();
+    }
+
+    /*
+     * toEmf renders the metrics as a CloudWatch Embedded Metric Format document with a FunctionName dimension
+     */
+    String toEmf(long timestamp) throws IOException {
+        StringWriter writer = new StringWriter(256 + metrics.size() * 64);
+        try (JsonGenerator json = jsonFactory.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("_aws");
+            json.writeNumberField("Timestamp", timestamp);
+            json.writeArrayFieldStart("CloudWatchMetrics");
+            json.writeStartObject();
+            json.writeStringField("Namespace", NAMESPACE);
+            json.writeArrayFieldStart("Dimensions");
+            json.writeStartArray();
+            json.writeString("FunctionName");
+            json.writeEndArray();
+            json.writeEndArray();
+            json.writeArrayFieldStart("Metrics");
+            for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+                json.writeStartObject();
+                json.writeStringField("Name", metric.getKey());
+                json.writeStringField("Unit", metric.getValue().unit);
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+
+            json.writeStringField("FunctionName", FUNCTION_NAME);
+            for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+                json.writeNumberField(metric.getKey(), metric.getValue().value);
+            }
+            json.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    private static final class Metric {
+        private double value;
+        private final String unit;
+
+        private Metric(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+}
@@ -4,58 +4,386 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
-import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
-import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import okhttp3.*;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.crac.Core;
+import org.crac.Resource;
 
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
+import javax.net.ssl.SSLContext;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.util.*;
-
-public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse> {
-    private static OkHttpClient client = new OkHttpClient(); // Use OKHTTP to make call to Vault
-    private static ObjectMapper objectMapper = new ObjectMapper(); // Jackson ObjectMapper; used to deserialize json
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse>, Resource {
+    // Clients are created on first use so they stay out of the init phase unless priming asks for them
+    // Use OKHTTP to make call to Vault; every call goes through the burst limit governor
+    static final Lazy<OkHttpClient> client = Lazy.of(() -> new OkHttpClient.Builder()
+            .addInterceptor(LambdaHandler.vaultRateGovernor)
+            .build());
+    static final Lazy<ObjectMapper> objectMapper = Lazy.of(ObjectMapper::new); // Jackson ObjectMapper; used to deserialize json
     private static Logger logger = Logger.getLogger(LambdaHandler.class);
-    private static Regions clientRegion = Regions.US_EAST_2;
-    private static AmazonS3 s3Client = AmazonS3ClientBuilder
-            .standard()
-            .withRegion(clientRegion)
-            .build();
+    static {
+        // LOG_LEVEL=DEBUG turns on payload logging (bodies, headers, certificates and the string-to-verify)
+        if(System.getenv("LOG_LEVEL") != null) {
+            Logger.getRootLogger().setLevel(Level.toLevel(System.getenv("LOG_LEVEL"), Level.INFO));
+        }
+    }
+    // AWS_REGION is set by the Lambda runtime; us-east-2 remains the fallback for local runs
+    private static final String clientRegion = System.getenv("AWS_REGION") != null
+            ? System.getenv("AWS_REGION")
+            : Regions.US_EAST_2.getName();
+    // Parsed signing certificate public keys, shared across invocations of a warm container
+    private static final PublicKeyCache publicKeyCache = new PublicKeyCache(
+            getIntEnv("PUBLIC_KEY_CACHE_MAX_ENTRIES", 32),
+            getIntEnv("PUBLIC_KEY_CACHE_TTL_SECONDS", 3600),
+            TimeUnit.SECONDS);
 
-    private static final AmazonSQS SQS = AmazonSQSClientBuilder.defaultClient();
     private static final String BUCKET_NAME =  System.getenv("BUCKET_NAME"); // Lambda Environment variable
     private static final String SQS_URL = System.getenv("VAULT_SAMPLE_SQS_QUEUE_URL");
-    private static final int SQS_DELAY = 10; // 10 Seconds
-    private static final String API_AUTH_ENDPOINT = "/api/v21.1/auth";
+    private static final int SQS_DELAY = getIntEnv("SQS_DELAY_SECONDS", 10); // 10 Seconds by default
+    private static final int SQS_MAX_ATTEMPTS = getIntEnv("SQS_MAX_ATTEMPTS", 3);
+    // How long concurrent requests wait to share a SendMessageBatch call; only the standalone server has any
+    private static final int SQS_BATCH_LINGER_MILLIS = getIntEnv("SQS_BATCH_LINGER_MILLIS", 0);
+    // Largest accepted Spark message. With payload encoding, bodies beyond the 256 KB SQS limit are compressed or stored
+    // in S3 by the transport; without it they must fit in one SQS message, leaving room for the attributes
+    static final int MAX_MESSAGE_BYTES = getIntEnv("MAX_MESSAGE_BYTES",
+            SparkPayloadTransport.ENCODING_ENABLED ? 1024 * 1024 : SqsBatchEnqueuer.MAX_BATCH_BYTES - 1024);
+    private static final int MAX_MESSAGE_ITEMS = getIntEnv("MAX_MESSAGE_ITEMS", 500);
     private static final String API_RETRIEVE_SIGNING_CERTIFICATE_ENDPOINT = "/api/v21.1/services/certificate/";
+    private static final String VAULT_USER = System.getenv("VAULT_USER");
+    private static final String VAULT_PASSWORD = System.getenv("VAULT_PASSWORD");
+    private static final String VAULT_HOSTNAME = System.getenv("VAULT_HOSTNAME");
+    // One Vault session reused across invocations; refreshed when idle for too long or rejected by Vault
+    private static final VaultSessionManager vaultSessionManager = new VaultSessionManager(
+            () -> VaultSessionManager.login(client.get(), objectMapper.get(), VAULT_USER, VAULT_PASSWORD, VAULT_HOSTNAME),
+            getIntEnv("VAULT_SESSION_IDLE_TIMEOUT_SECONDS", 600),
+            TimeUnit.SECONDS);
+    // Keeps Vault calls within the burst limit, holding VAULT_API_BURST_LIMIT_CUTOFF calls in reserve
+    private static final VaultRateGovernor vaultRateGovernor = new VaultRateGovernor(
+            getIntEnv("VAULT_API_BURST_LIMIT_CUTOFF", 10),
+            getIntEnv("VAULT_API_BURST_WINDOW_SECONDS", 300),
+            getIntEnv("VAULT_API_MAX_WAIT_SECONDS", 5),
+            TimeUnit.SECONDS,
+            getIntEnv("VAULT_API_MAX_RETRIES", 3));
+    // Concurrent certificate misses for the same id share one S3 lookup and Vault fetch
+    private static final SingleFlight<String, byte[]> certificateFetches = new SingleFlight<>();
+
+    // Sample message used to prime Jackson and the signature path before a snapshot is taken
+    private static final String PRIMING_BODY = "{\"message\":{\"attributes\":{\"object\":\"vsdk_loan_approval__c\","
+            + "\"event\":\"priming\"},\"items\":[\"V5K000000000001\"]}}";
+
+    private final Lazy<AmazonS3> s3Client;
+    private final Lazy<SqsBatchEnqueuer> sqsEnqueuer;
+    // The Vault signing certificates are retrieved from, through the shared session unless a caller passes its own
+    private final String vaultHostname;
+    private final VaultSessionManager sessionManager;
+    // Compresses large message bodies and claim-checks those still too large for SQS in BUCKET_NAME
+    private final Lazy<SparkPayloadTransport> payloadTransport;
+    // Drops repeated deliveries of a message already enqueued; null when IDEMPOTENCY_ENABLED is false
+    private final Lazy<IdempotencyStore> idempotencyStore;
+    // Rejects incomplete, stale and replayed requests before any I/O or public-key crypto
+    private final SparkRequestFilter requestFilter;
+
+    public LambdaHandler() {
+        this.s3Client = Lazy.of(() -> AmazonS3ClientBuilder
+                .standard()
+                .withRegion(clientRegion)
+                .build());
+        this.sqsEnqueuer = Lazy.of(() -> new SqsBatchEnqueuer(
+                AmazonSQSAsyncClientBuilder.standard().withRegion(clientRegion).build(),
+                SQS_URL,
+                SQS_DELAY,
+                SQS_MAX_ATTEMPTS,
+                SQS_BATCH_LINGER_MILLIS));
+        this.payloadTransport = Lazy.of(() -> SparkPayloadTransport.fromEnvironment(s3Client));
+        this.idempotencyStore = Lazy.of(IdempotencyStore::fromEnvironment);
+        this.requestFilter = SparkRequestFilter.fromEnvironment();
+        this.vaultHostname = VAULT_HOSTNAME;
+        this.sessionManager = vaultSessionManager;
+
+        // Register for CRaC/SnapStart checkpoint notifications; the runtime keeps this handler strongly referenced
+        Core.getGlobalContext().register(this);
+
+        // Without SnapStart, priming during init still helps provisioned concurrency and pre-warmed containers
+        if(Boolean.parseBoolean(System.getenv("PRIME_ON_INIT"))) {
+            prime();
+        }
+    }
+
+    /*
+     * Creates a handler on the given S3 client and SQS enqueuer, e.g. in-process stand-ins for local benchmarks;
+     * duplicate deliveries and replays are not dropped, so a benchmark can send the same signed request repeatedly
+     * @param s3Client, the client used to read and store certificate(PEM) files
+     * @param sqsEnqueuer, the enqueuer used to push validated Spark messages
+     */
+    public LambdaHandler(AmazonS3 s3Client, SqsBatchEnqueuer sqsEnqueuer) {
+        this(s3Client, sqsEnqueuer, null, new SparkRequestFilter(
+                getIntEnv("SPARK_REQUEST_MAX_AGE_SECONDS", 600),
+                getIntEnv("SPARK_REQUEST_MAX_SKEW_SECONDS", 60),
+                0));
+    }
+
+    /*
+     * Creates a handler on the given S3 client, SQS enqueuer, idempotency store and request filter
+     * @param idempotencyStore, the store used to drop duplicate deliveries, or null to enqueue every delivery
+     * @param requestFilter, the checks run before any I/O or public-key crypto
+     */
+    public LambdaHandler(AmazonS3 s3Client, SqsBatchEnqueuer sqsEnqueuer, IdempotencyStore idempotencyStore,
+                         SparkRequestFilter requestFilter) {
+        this(s3Client, sqsEnqueuer, idempotencyStore, requestFilter, VAULT_HOSTNAME, vaultSessionManager);
+    }
+
+    /*
+     * Creates a handler that retrieves signing certificates from the given Vault, e.g. a local stub server
+     * @param vaultHostname, the Vault base URL certificates are retrieved from
+     * @param sessionManager, the session used for those calls
+     */
+    LambdaHandler(AmazonS3 s3Client, SqsBatchEnqueuer sqsEnqueuer, IdempotencyStore idempotencyStore,
+                  SparkRequestFilter requestFilter, String vaultHostname, VaultSessionManager sessionManager) {
+        this.s3Client = Lazy.value(s3Client);
+        this.sqsEnqueuer = Lazy.value(sqsEnqueuer);
+        this.payloadTransport = Lazy.of(() -> SparkPayloadTransport.fromEnvironment(this.s3Client));
+        this.idempotencyStore = Lazy.value(idempotencyStore);
+        this.requestFilter = requestFilter;
+        this.vaultHostname = vaultHostname;
+        this.sessionManager = sessionManager;
+    }
+
+    /*
+     * beforeCheckpoint runs before the SnapStart/CRaC snapshot is taken, so the work done by prime is part of the snapshot
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        prime();
+    }
+
+    /*
+     * afterRestore replaces every connection made before the snapshot, as none of them survive a restore:
+     * pooled Vault connections are dropped, and the S3, SQS and DynamoDB clients created while priming are shut down
+     * and built again, so the first request finds them ready. Clients passed in by the caller are left alone
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        if(client.isInitialized()) {
+            client.get().connectionPool().evictAll();
+        }
+        rebuild(s3Client, AmazonS3::shutdown);
+        rebuild(sqsEnqueuer, SqsBatchEnqueuer::shutdown);
+        if(idempotencyStore.isInitialized() && idempotencyStore.get() != null) {
+            idempotencyStore.get().reconnect();
+        }
+    }
+
+    private static <T> void rebuild(Lazy<T> lazy, Consumer<T> shutdown) {
+        T previous = lazy.reset();
+        if(previous != null) {
+            shutdown.accept(previous);
+            lazy.get();
+        }
+    }
+
+    /*
+     * prime loads and initialises the crypto providers, Jackson, the TLS context and the clients
+     * without making any network calls, so the first request does not pay for class loading and JIT warm-up
+     */
+    public void prime() {
+        long start = System.nanoTime();
+        try {
+            // Crypto providers: RSA key generation, SHA256withRSA sign/verify and X.509 certificate parsing
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            Signature signer = Signature.getInstance("SHA256withRSA");
+            signer.initSign(keyPair.getPrivate());
+            signer.update(PRIMING_BODY.getBytes(StandardCharsets.UTF_8));
+            String signature = Base64.getEncoder().encodeToString(signer.sign());
+            for(int i = 0; i < 100; i++) {
+                SparkSignatureVerifier.verify(PRIMING_BODY, signature, keyPair.getPublic());
+            }
+            CertificateFactory.getInstance("X.509");
+
+            // Jackson
+            objectMapper.get().readTree(PRIMING_BODY);
+            SparkMessageEnvelope.parse(PRIMING_BODY, MAX_MESSAGE_BYTES, MAX_MESSAGE_ITEMS);
+
+            // TLS and the client connection pools
+            SSLContext.getDefault();
+            client.get();
+            s3Client.get();
+            sqsEnqueuer.get();
+        } catch (GeneralSecurityException | IOException | InvalidSparkMessageException e) {
+            logger.error("Priming failed: " + e.getMessage());
+        }
+        logger.info("Primed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
 
     @Override
     public APIGatewayV2HTTPResponse handleRequest(APIGatewayV2HTTPEvent event,  Context context) {
+        // Metrics are collected for the whole invocation and written as one EMF line at the end
+        InvocationMetrics metrics = InvocationMetrics.begin();
+        try {
+            return processMessage(event.getHeaders(), event.getBody(), metrics);
+        } finally {
+            metrics.flush();
+        }
+    }
 
-        // Extract request body and headers
-        String body = event.getBody();
-        logger.info("Body: " + body);
-        Map<String, String> headers = event.getHeaders();
-        logger.info("Headers: " + event.getHeaders());
+    /*
+     * processMessage validates a Spark message and enqueues it to SQS
+     * @param headers, the map containing the headers received
+     * @param body, the body received as a json string
+     * @param metrics, the metrics of the current invocation
+     * @returns response, 200 if the message was enqueued or is a duplicate or replay of one already enqueued, 400 if the body is not a valid Spark message,
+     *                    or a signature header is missing, 403 if the request is stale or there is no usable key,
+     *                    500 otherwise
+     */
+    public APIGatewayV2HTTPResponse processMessage(Map<String, String> headers, String body, InvocationMetrics metrics) {
+        // Payload logging is verbose, so it is only done at debug level (LOG_LEVEL=DEBUG)
+        if(logger.isDebugEnabled()) {
+            logger.debug("Body: " + body);
+            logger.debug("Headers: " + headers);
+        }
+        metrics.put("PayloadSize", SqsBatchEnqueuer.utf8Length(body), InvocationMetrics.BYTES);
 
         APIGatewayV2HTTPResponse response = new APIGatewayV2HTTPResponse();
 
-        // Get the certificateId from the headers
-        String certificateId = headers.get("X-VaultAPISignature-CertificateId");
-        if(certificateId == null) certificateId =  headers.get("x-vaultapisignature-certificateid");
-        logger.info("Certificate Id: " + certificateId);
+        // Turn away incomplete, stale and replayed requests using the headers alone
+        String rejection = requestFilter.check(headers, System.currentTimeMillis());
+        if(rejection != null) {
+            logger.info("Rejected Spark request: " + rejection);
+            metrics.count(rejection);
+            if(SparkRequestFilter.REPLAYED_REQUEST.equals(rejection)) {
+                return duplicate(response, metrics);
+            }
+            boolean stale = SparkRequestFilter.STALE_REQUEST.equals(rejection);
+            response.setStatusCode(stale ? 403 : 400);
+            response.setBody(stale ? "Expired Request" : "Invalid Request");
+            return response;
+        }
+
+        // Check the size and envelope of the message before any certificate lookup or signature work
+        SparkMessageEnvelope envelope;
+        try {
+            envelope = SparkMessageEnvelope.parse(body, MAX_MESSAGE_BYTES, MAX_MESSAGE_ITEMS);
+        } catch (InvalidSparkMessageException e) {
+            logger.info("Rejected Spark message: " + e.getMessage());
+            metrics.count("InvalidEnvelope");
+            response.setStatusCode(400);
+            response.setBody("Invalid Message");
+            return response;
+        }
+        metrics.put("MessageItems", envelope.getItemCount(), InvocationMetrics.COUNT);
+
+        // Drop a redelivery this container already enqueued before any certificate or signature work
+        IdempotencyStore store = idempotencyStore.get();
+        String idempotencyKey = null;
+        if(store != null) {
+            idempotencyKey = "enqueue/" + IdempotencyStore.key(envelope.getMessageId(), body);
+            if(store.isCompleted(idempotencyKey)) {
+                return duplicate(response, metrics);
+            }
+        }
+
+        // Get the certificateId from the headers; the request filter has checked it is present
+        String certificateId = SparkRequestFilter.header(headers, "X-VaultAPISignature-CertificateId");
+
+        // Find the public key corresponding to certificateId, from the cache or from the certificate file
+        PublicKey publicKey = lookupPublicKey(certificateId, metrics);
+
+        // If the public key is null(certificate doesn't exist on s3, is not returned by vault or can't be parsed)
+        if(publicKey == null) {
+            logger.info("No public key for certificate " + certificateId);
+            metrics.count("MissingCertificate");
+            response.setStatusCode(403);
+            response.setBody("Invalid Key");
+            return response;
+        }
+
+        // Valid Spark Message
+        long verifyStart = System.nanoTime();
+        boolean isValidMessage = validate(headers, body, publicKey);
+        metrics.time("SignatureVerificationTime", verifyStart);
+        metrics.count(isValidMessage ? "ValidMessages" : "InvalidMessages");
+
+        // If spark message is valid, send to sqs queue for further processing
+        // If not, throw error
+        boolean enqueued = false;
+        if(isValidMessage) {
+            // Only signed messages claim a key, so an unsigned copy can never block the real one
+            if(store != null && !store.begin(idempotencyKey)) {
+                return duplicate(response, metrics);
+            }
+            long enqueueStart = System.nanoTime();
+            enqueued = enqueueMessage(body, envelope);
+            metrics.time("EnqueueTime", enqueueStart);
+            if(!enqueued) {
+                metrics.count("EnqueueFailures");
+            }
+            if(enqueued) {
+                requestFilter.accept(headers, System.currentTimeMillis());
+            }
+            if(store != null) {
+                if(enqueued) {
+                    store.complete(idempotencyKey);
+                } else {
+                    store.release(idempotencyKey);
+                }
+            }
+        }
+
+        if(enqueued) {
+            response.setStatusCode(200);
+            response.setBody("SUCCESS");
+        } else {
+            response.setStatusCode(500);
+            response.setBody("FAILURE");
+        }
+        return response;
+    }
+
+    private static APIGatewayV2HTTPResponse duplicate(APIGatewayV2HTTPResponse response, InvocationMetrics metrics) {
+        metrics.count("DuplicateMessages");
+        response.setStatusCode(200);
+        response.setBody("DUPLICATE");
+        return response;
+    }
+
+    /*
+     * lookupPublicKey returns the public key for the certificate id from the shared cache, loading it on a miss;
+     * concurrent misses for the same id share one load. Hits and misses are counted by the cache itself
+     * @param certificateId, the X-VaultAPISignature-CertificateId of the request
+     * @param metrics, the metrics of the current invocation
+     * @returns publicKey, the public key of the certificate or null if there is no usable key
+     */
+    PublicKey lookupPublicKey(String certificateId, InvocationMetrics metrics) {
+        long lookupStart = System.nanoTime();
+        PublicKey publicKey = publicKeyCache.get(certificateId, this::loadPublicKey);
+        metrics.time("CertificateLookupTime", lookupStart);
+        return publicKey;
+    }
 
+    /*
+     * loadPublicKey is the slow path behind the public key cache; it finds the certificate file and parses its public key
+     * @param certificateId, the certificate id which matches the certificate file's name
+     * @returns publicKey, the public key of the certificate or null if the certificate could not be found or parsed
+     */
+    public PublicKey loadPublicKey(String certificateId) {
         // Find certificate corresponding to certificateId
         // If not found, write certificate to cloudwatch logs and add to s3 bucket
         String certificatePath = new StringBuilder("PublicKeys/")
@@ -63,15 +391,20 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
                 .append(".pem")
                 .toString();
         byte[] certificateFile = getCertificateFile(certificateId, certificatePath);
-        logger.info(certificateFile);
 
         // If Certificate file is null(doesn't exist on s3 and not returned by vault)
         if(certificateFile == null) {
-            response.setStatusCode(403);
-            response.setBody("Invalid Key");
-            return response;
+            return null;
         }
+        return parsePublicKey(certificateFile);
+    }
 
+    /*
+     * parsePublicKey extracts the public key from a certificate(PEM) file
+     * @param certificateFile, a byte array with the contents of the pem file(certificate)
+     * @returns publicKey, the public key of the certificate or null if the certificate could not be parsed
+     */
+    public PublicKey parsePublicKey(byte[] certificateFile) {
         String pemKey = new String(certificateFile)
                 .replace("-----BEGIN CERTIFICATE-----", "")
                 .replaceAll("\\R", "")
@@ -89,24 +422,7 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
         } catch (CertificateException e) {
             logger.info(e.getMessage());
         }
-
-        logger.info(publicKey);
-
-        // Valid Spark Message
-        boolean isValidMessage = validate(headers, body, publicKey);
-
-        // If spark message is valid, send to sqs queue for further processing
-        // If not, throw error
-        if(isValidMessage) {
-            // Enqueue Message
-            enqueueMessage(body);
-            response.setStatusCode(200);
-            response.setBody("SUCCESS");
-        } else {
-            response.setStatusCode(500);
-            response.setBody("FAILURE");
-        }
-        return response;
+        return publicKey;
     }
 
     /*
@@ -116,37 +432,94 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
      * @returns certificateFile, a byte array that returns the contents of the pem file(certificate) from s3 or vault
      */
     public byte[] getCertificateFile(String certificateId, String certificatePath) {
-        byte[] certificateFile = null;
+        return certificateFetches.execute(certificateId, () -> fetchCertificateFile(certificateId, certificatePath));
+    }
 
-        if(s3Client.doesObjectExist(BUCKET_NAME, certificatePath)) {
+    /*
+     * fetchCertificateFile reads the certificate(PEM) file from s3, or retrieves it from Vault and adds it to s3
+     * @param certificateId, the certificate id which matches the certificate file's name
+     * @param certificatePath, a string value for the presumed path of the pem file on s3
+     * @returns certificateFile, a byte array that returns the contents of the pem file(certificate) from s3 or vault
+     */
+    private byte[] fetchCertificateFile(String certificateId, String certificatePath) {
+        InvocationMetrics metrics = InvocationMetrics.current();
+        long s3Start = System.nanoTime();
+        if(s3Client.get().doesObjectExist(BUCKET_NAME, certificatePath)) {
             // Use BUCKET_NAME an certificatePath to get certificate(pem) file as string
-            String fileData = s3Client.getObjectAsString(BUCKET_NAME, certificatePath);
-            logger.info(BUCKET_NAME);
-            logger.info(certificatePath);
-            logger.info(fileData);
-            certificateFile = fileData.getBytes();
-            return certificateFile;
-        } else { // Get from vault
-            // Get vault user, password and hostname
-            String username = System.getenv("VAULT_USER");
-            String password = System.getenv("VAULT_PASSWORD");
-            String hostname = System.getenv("VAULT_HOSTNAME");
-
-            // Make auth call to vault and get session id
-            // Makes GET /api/{version}/auth endpoint call
-            String sessionId = getSessionId(username, password, hostname);
-            if(sessionId != null) {
-                // Make Retrieve Signing Certificate API call
-                // GET /api/{version}/services/certificate/{cert_id}
-                String publicKey = getPublicKey(sessionId, certificateId, hostname);
-                logger.info("Certificate to be added to " + BUCKET_NAME);
-
-                // Add certificate retrieved from vault to s3
-                s3Client.putObject(BUCKET_NAME, certificatePath, publicKey);
-                logger.info(publicKey);
-                return publicKey.getBytes();
+            String fileData = s3Client.get().getObjectAsString(BUCKET_NAME, certificatePath);
+            metrics.time("CertificateS3Time", s3Start);
+            logger.info("Certificate read from " + BUCKET_NAME + "/" + certificatePath);
+            if(logger.isDebugEnabled()) {
+                logger.debug(fileData);
+            }
+            return fileData.getBytes();
+        }
+        metrics.time("CertificateS3Time", s3Start);
+
+        // Get from vault
+        long vaultStart = System.nanoTime();
+        String publicKey = retrieveSigningCertificate(certificateId);
+        metrics.time("CertificateVaultTime", vaultStart);
+        if(publicKey == null) {
+            return null;
+        }
+        logger.info("Certificate to be added to " + BUCKET_NAME);
+
+        // Add certificate retrieved from vault to s3
+        s3Client.get().putObject(BUCKET_NAME, certificatePath, publicKey);
+        if(logger.isDebugEnabled()) {
+            logger.debug(publicKey);
+        }
+        return publicKey.getBytes();
+    }
+
+    /*
+     * retrieveSigningCertificate retrieves the certificate from Vault using the shared Vault session
+     * If Vault rejects the session with INVALID_SESSION_ID, the session is refreshed and the call is retried once;
+     * any other failure, e.g. an unknown certificate id, keeps the session and is not retried
+     * @param certificateId, the id of the certificate/pem to be retrieved
+     * @returns certificate, the certificate retrieved from the vault or null if it could not be retrieved
+     */
+    private String retrieveSigningCertificate(String certificateId) {
+        for(int attempt = 0; attempt < 2; attempt++) {
+            // Makes GET /api/{version}/auth endpoint call only when there is no usable session
+            String sessionId = sessionManager.getSessionId();
+            if(sessionId == null) {
+                return null;
+            }
+
+            // Make Retrieve Signing Certificate API call
+            // GET /api/{version}/services/certificate/{cert_id}
+            String publicKey = getPublicKey(sessionId, certificateId, vaultHostname);
+            if(publicKey != null && publicKey.contains("-----BEGIN CERTIFICATE-----")) {
+                return publicKey;
+            }
+
+            // Vault answers an expired or invalid session with a JSON error rather than the certificate
+            logger.error("Unable to retrieve certificate " + certificateId + ": " + publicKey);
+            if(!isInvalidSession(publicKey)) {
+                return null;
             }
-            return certificateFile;
+            sessionManager.invalidate(sessionId);
+        }
+        return null;
+    }
+
+    /*
+     * isInvalidSession tells whether a Vault response is the error Vault returns for an expired or invalid session
+     * @param response, the body of the Vault response, or null if there was none
+     * @returns invalidSession, true if the first error of the response is INVALID_SESSION_ID
+     */
+    private static boolean isInvalidSession(String response) {
+        if(response == null) {
+            return false;
+        }
+        try {
+            JsonNode json = objectMapper.get().readTree(response);
+            return json != null
+                    && VaultRestClient.INVALID_SESSION_ID.equals(json.path("errors").path(0).path("type").asText());
+        } catch (IOException e) {
+            return false;
         }
     }
 
@@ -158,30 +531,7 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
      * @returns sessionId, an active sessionId for the vault
      */
     public String getSessionId(String username, String password, String hostname) {
-        String url = new StringBuilder(hostname).append(API_AUTH_ENDPOINT).toString();
-
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("username", username)
-                .addFormDataPart("password", password)
-                .build();
-
-        Request request = new Request.Builder()
-                .url(url)
-                .addHeader("Content-Type", "application/x-www-form-urlencoded")
-                .post(requestBody)
-                .build();
-
-        try (Response response = client.newCall(request).execute()) {
-            // If the API call is successful then get the session id from the json returned
-            if(response.isSuccessful()) {
-                ObjectNode responseJSON = objectMapper.readValue(response.body().string(), ObjectNode.class);
-                return responseJSON.get("sessionId").toString();
-            }
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-        }
-        return null;
+        return VaultSessionManager.login(client.get(), objectMapper.get(), username, password, hostname);
     }
 
     /*
@@ -200,7 +550,7 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
                 .get()
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
+        try (Response response = client.get().newCall(request).execute()) {
             if(response.isSuccessful()) { // If successful, return the certificate
                 return response.body().string();
             }
@@ -218,11 +568,6 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
      * @returns verified, an boolean representing whether the spark message was valid
      */
     public boolean validate(Map<String,String> headers, String body, PublicKey publicKey) {
-        String stringToVerify = null;
-
-        // Create the String-to-Verify
-        stringToVerify = prepareDataToVerify(headers, body);
-
         // Get the X-Vault-API-SignatureV2
         String xVaultAPISignature = "";
         if(headers.get("X-VaultAPI-SignatureV2") != null) {
@@ -230,11 +575,17 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
         } else if (headers.get("x-vaultapi-signaturev2") != null) {
             xVaultAPISignature = headers.get("x-vaultapi-signaturev2");
         }
-        logger.info("Signature: " + xVaultAPISignature);
+        logger.debug("Signature: " + xVaultAPISignature);
 
         // Verify the spark message
-        boolean verified = verifySignUsingCrypto(stringToVerify,xVaultAPISignature, publicKey);
-        logger.info("Verified: " + verified);
+        // The string-to-verify (see prepareDataToVerify) is streamed into the signature rather than built in memory
+        boolean verified = false;
+        try {
+            verified = SparkSignatureVerifier.verify(headers, body, xVaultAPISignature, publicKey);
+        } catch (InvalidKeyException | SignatureException | IllegalArgumentException e) {
+            logger.error(e.getMessage());
+        }
+        logger.debug("Verified: " + verified);
         return verified;
     }
 
@@ -258,10 +609,11 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
         Arrays.sort(headerKeysArray);
 
         // Convert X-VaultAPISignature-* headers to Lowercase(<HeaderName1>)+":"+Trim(<value>)+"\n" format
+        // Locale.ROOT keeps the header names canonical under any default locale, e.g. the I of "API" in Turkish
         int headerKeysArrayLength = headerKeysArray.length;
         for(int i = 0; i < headerKeysArrayLength; i++) {
             String key = headerKeysArray[i];
-            headerKeysArray[i] = key.toLowerCase() + ":" + headers.get(key).trim() + "\n";
+            headerKeysArray[i] = key.toLowerCase(Locale.ROOT) + ":" + headers.get(key).trim() + "\n";
         }
 
         /*
@@ -284,8 +636,11 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
             stringToVerifySB.append(headers.get("x-vaultapisignature-url"));
         }
 
-        logger.info(stringToVerifySB.toString());
-        return stringToVerifySB.toString();
+        String stringToVerify = stringToVerifySB.toString();
+        if(logger.isDebugEnabled()) {
+            logger.debug(stringToVerify);
+        }
+        return stringToVerify;
     }
 
     /*
@@ -298,13 +653,9 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
     public boolean verifySignUsingCrypto(String stringToVerify, String xVaultAPISignature, PublicKey pubKey) {
         boolean verified = false;
         try {
-            // Create signature using the public key and the string to verify
-            Signature signature = Signature.getInstance("SHA256withRSA");
-            signature.initVerify(pubKey);
-            signature.update(stringToVerify.getBytes());
-            // Verify that the string to verify matches the signature received in the headers
-            verified = signature.verify(Base64.getMimeDecoder().decode(xVaultAPISignature.getBytes()));
-        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            // Verify that the string to verify(UTF-8 encoded) matches the signature received in the headers
+            verified = SparkSignatureVerifier.verify(stringToVerify, xVaultAPISignature, pubKey);
+        } catch (InvalidKeyException | SignatureException | IllegalArgumentException e) {
             logger.error(e.getMessage());
         }
         return verified;
@@ -313,14 +664,67 @@ public class LambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIG
     /*
      * enqueueMessage, pushes the message to a SQS queue
      * @param body, a string SQS message
+     * @returns enqueued, a boolean value indicating whether the message was accepted by SQS
      */
-    public void enqueueMessage(String body) {
-        logger.info("Enqueuing Spark Message to queue: " + SQS_URL);
-        SendMessageRequest sendMessageRequest = new SendMessageRequest()
-                .withQueueUrl(SQS_URL)
+    public boolean enqueueMessage(String body) {
+        return enqueueMessages(Collections.singletonList(body)).isEmpty();
+    }
+
+    /*
+     * enqueueMessage, pushes a validated Spark message to a SQS queue with its object, event and item count
+     * as message attributes, so consumers can route the message without parsing the body.
+     * With SQS_PAYLOAD_ENCODING_ENABLED, large bodies are compressed, and stored in S3 behind a pointer message when
+     * still too large for SQS
+     * @param body, a string SQS message
+     * @param envelope, the envelope parsed from the body
+     * @returns enqueued, a boolean value indicating whether the message was accepted by SQS
+     */
+    public boolean enqueueMessage(String body, SparkMessageEnvelope envelope) {
+        SendMessageBatchRequestEntry entry = new SendMessageBatchRequestEntry()
                 .withMessageBody(body)
-                .withDelaySeconds(SQS_DELAY);
-        SQS.sendMessage(sendMessageRequest);
+                .addMessageAttributesEntry("object", stringAttribute(envelope.getObject()))
+                .addMessageAttributesEntry("event", stringAttribute(envelope.getEvent()))
+                .addMessageAttributesEntry("itemCount", new MessageAttributeValue()
+                        .withDataType("Number")
+                        .withStringValue(Integer.toString(envelope.getItemCount())));
+        if (!payloadTransport.get().encode(entry)) {
+            return false;
+        }
+        logger.debug("Enqueuing Spark Message with " + envelope.getItemCount() + " item(s) to queue: " + SQS_URL);
+        return sqsEnqueuer.get().enqueueEntry(entry);
+    }
+
+    private static MessageAttributeValue stringAttribute(String value) {
+        return new MessageAttributeValue().withDataType("String").withStringValue(value);
+    }
+
+    /*
+     * enqueueMessages, pushes messages to a SQS queue using SendMessageBatch calls of up to 10 messages or 256 KB
+     * @param bodies, the string SQS messages
+     * @returns failed, the messages that could not be enqueued
+     */
+    public List<String> enqueueMessages(List<String> bodies) {
+        logger.debug("Enqueuing " + bodies.size() + " Spark Message(s) to queue: " + SQS_URL);
+        return sqsEnqueuer.get().enqueue(bodies);
+    }
+
+    /*
+     * getIntEnv reads an integer Lambda environment variable
+     * @param name, the name of the environment variable
+     * @param defaultValue, the value used when the variable is not set or is not a number
+     * @returns value, the value of the environment variable or the default
+     */
+    static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if(value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.error("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.veeva.vault;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/*
+ * Lazy creates a value on first use and returns the same value afterwards.
+ * Used to keep AWS and HTTP client construction out of the Lambda init phase until a request needs them.
+ * A factory may return null, e.g. for a disabled feature; the null is kept like any other value.
+ * Creation is guarded by a ReentrantLock, not synchronized: factories open connections, and a virtual thread blocked
+ * inside synchronized pins its carrier thread.
+ */
+public class Lazy<T> implements Supplier<T> {
+    private final Supplier<T> factory;
+    private final boolean resettable;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean computed;
+    private volatile T value;
+
+    private Lazy(Supplier<T> factory, boolean resettable) {
+        this.factory = factory;
+        this.resettable = resettable;
+    }
+
+    public static <T> Lazy<T> of(Supplier<T> factory) {
+        return new Lazy<>(factory, true);
+    }
+
+    /*
+     * value wraps an already created value, e.g. a client passed in by the caller; it is never reset
+     */
+    public static <T> Lazy<T> value(T value) {
+        Lazy<T> lazy = new Lazy<>(() -> value, false);
+        lazy.value = value;
+        lazy.computed = true;
+        return lazy;
+    }
+
+    @Override
+    public T get() {
+        if (!computed) {
+            lock.lock();
+            try {
+                if (!computed) {
+                    value = factory.get();
+                    computed = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return value;
+    }
+
+    /*
+     * isInitialized returns whether the value has been created, without creating it
+     */
+    public boolean isInitialized() {
+        return computed;
+    }
+
+    /*
+     * reset forgets the created value so the next get creates a new one, e.g. to replace clients whose connections
+     * did not survive a snapshot restore. Callers must make sure no other thread is using the value
+     * @returns value, the value that was forgotten, for the caller to close; null if there was none or the value
+     * was passed in with value()
+     */
+    public T reset() {
+        lock.lock();
+        try {
+            if (!resettable || !computed) {
+                return null;
+            }
+            T previous = value;
+            computed = false;
+            value = null;
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/*
+ * LoanQuoteGenerator generates the AWS finance quote for each loan approval record of a query page.
+ * It is the Java port of generateLoanApprovalQuotes in vsdkSparkSampleProcessMessage/lambda_function.py and keeps its
+ * integer arithmetic: the amount is floored to whole hundreds before each year's interest is added.
+ *
+ * A page is loaded into columns first (amounts, periods and quote counts in primitive arrays), the repayments are
+ * computed over the columns in one pass and the timestamps are formatted once per page.
+ */
+public class LoanQuoteGenerator {
+    public static final String REQUOTE_EVENT = "Loan re-quote";
+    private static final int ANNUAL_INTEREST_PERCENTAGE = 15;
+    // Give discount for requotes
+    private static final int REQUOTE_ANNUAL_INTEREST_PERCENTAGE = 12;
+    private static final double APPROVAL_LIMIT = 100000;
+    private static final DateTimeFormatter REFERENCE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final DateTimeFormatter RECEIVED_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'.000Z'");
+    private static Logger logger = Logger.getLogger(LoanQuoteGenerator.class);
+
+    private LoanQuoteGenerator() {
+    }
+
+    /*
+     * generate creates the bulk update body setting the quote fields of each record
+     * @param rows, the data of a query on id, name__v, surname__c, item__c, loan_amount__c, loan_period_months__c
+     *              and number_of_quotes__c
+     * @param event, the Vault event the message was created from
+     * @param now, the time the quotes are generated at, in UTC
+     * @returns quotes, one update per valid row; rows with missing values are logged and skipped
+     */
+    public static ArrayNode generate(JsonNode rows, String event, LocalDateTime now) {
+        int annualInterestPercentage = annualInterestPercentage(event);
+        String interestRateAnnual = annualInterestPercentage + "%";
+        String quoteDatestamp = now.format(RECEIVED_DATE);
+        String referenceTimestamp = now.format(REFERENCE_TIMESTAMP);
+
+        // Load the page into columns, dropping the rows that cannot be quoted
+        int capacity = rows.size();
+        String[] ids = new String[capacity];
+        String[] references = new String[capacity];
+        double[] amounts = new double[capacity];
+        int[] periodMonths = new int[capacity];
+        long[] quoteCounts = new long[capacity];
+        int size = 0;
+        for (JsonNode row : rows) {
+            String id = row.path("id").asText(null);
+            String forename = row.path("name__v").asText("");
+            String surname = row.path("surname__c").asText("");
+            String item = row.path("item__c").asText("");
+            JsonNode amount = row.path("loan_amount__c");
+            int months = periodMonths(row.path("loan_period_months__c").path(0).asText(""));
+            if (id == null || forename.isEmpty() || !amount.isNumber() || months <= 0) {
+                logger.error("Skipping record " + id + ": missing name, loan amount or loan period");
+                continue;
+            }
+            ids[size] = id;
+            // Quote Ref Number uses the sample format <initial>-<surname><item>-<currDateTime>; the timestamp is all
+            // digits, so only this prefix needs upper-casing
+            references[size] = (forename.charAt(0) + "-" + surname + item.substring(0, Math.min(3, item.length())))
+                    .toUpperCase(Locale.ROOT).replace("'", "");
+            amounts[size] = amount.asDouble();
+            periodMonths[size] = months;
+            quoteCounts[size] = row.path("number_of_quotes__c").asLong();
+            size++;
+        }
+
+        // Calculate the repayable amounts
+        long[] monthlyRepayable = new long[size];
+        long[] totalRepayable = new long[size];
+        repayments(amounts, periodMonths, size, annualInterestPercentage, monthlyRepayable, totalRepayable);
+
+        ArrayNode quotes = JsonNodeFactory.instance.arrayNode(size);
+        for (int i = 0; i < size; i++) {
+            ObjectNode quote = quotes.addObject();
+            quote.put("id", ids[i]);
+            quote.put("quote_reference_number__c", references[i] + referenceTimestamp);
+            quote.put("quote_received_date__c", quoteDatestamp);
+            quote.put("interest_rate_annually__c", interestRateAnnual);
+            quote.put("monthly_payment__c", monthlyRepayable[i]);
+            quote.put("total_repayable__c", totalRepayable[i]);
+            quote.put("approval_status__c", amounts[i] > APPROVAL_LIMIT ? "rejected__c" : "approved__c");
+            quote.put("number_of_quotes__c", quoteCounts[i] == 0 ? 0 : quoteCounts[i] + 1);
+        }
+        return quotes;
+    }
+
+    /*
+     * annualInterestPercentage returns the rate quoted for the event; re-quotes get a discount
+     */
+    public static int annualInterestPercentage(String event) {
+        return REQUOTE_EVENT.equals(event) ? REQUOTE_ANNUAL_INTEREST_PERCENTAGE : ANNUAL_INTEREST_PERCENTAGE;
+    }
+
+    /*
+     * repayments computes the monthly and total repayable amounts of the first size rows.
+     * Each whole year floors the running total to hundreds before adding the interest. A closed form such as
+     * amount * 1.15^years drifts from that rounding (12345 over 2 years: 16326 instead of 16215), so the years are
+     * stepped; a two digit period has at most 8. Whole amounts are stepped in long arithmetic like the Python integers,
+     * which is exact for amounts below 2^53.
+     * @param amounts, the loan amounts
+     * @param periodMonths, the loan periods in months, all positive
+     * @param size, the number of rows to compute
+     * @param annualInterestPercentage, the interest added per whole year
+     * @param monthlyRepayable, receives the monthly payment of each row
+     * @param totalRepayable, receives the total repayable of each row
+     */
+    public static void repayments(double[] amounts, int[] periodMonths, int size, int annualInterestPercentage,
+                                  long[] monthlyRepayable, long[] totalRepayable) {
+        long multiplier = 100 + annualInterestPercentage;
+        for (int i = 0; i < size; i++) {
+            double amount = amounts[i];
+            int months = periodMonths[i];
+            int years = months / 12;
+            long monthly;
+            if (amount == (long) amount) {
+                long total = (long) amount;
+                for (int year = 0; year < years; year++) {
+                    total = Math.floorDiv(total, 100) * multiplier;
+                }
+                monthly = Math.floorDiv(total, months);
+            } else {
+                double total = amount;
+                for (int year = 0; year < years; year++) {
+                    total = Math.floor(total / 100) * multiplier;
+                }
+                monthly = (long) Math.floor(total / months);
+            }
+            monthlyRepayable[i] = monthly;
+            totalRepayable[i] = monthly * months;
+        }
+    }
+
+    /*
+     * periodMonths reads the number of months from the first two characters of the loan period picklist value,
+     * e.g. 24 from "24_months__c"
+     */
+    static int periodMonths(String period) {
+        int months = 0;
+        for (int i = 0; i < Math.min(2, period.length()) && Character.isDigit(period.charAt(i)); i++) {
+            months = months * 10 + (period.charAt(i) - '0');
+        }
+        return months;
+    }
+}
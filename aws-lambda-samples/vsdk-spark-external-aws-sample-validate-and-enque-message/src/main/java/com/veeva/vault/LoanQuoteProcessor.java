@@ -0,0 +1,204 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.apache.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * LoanQuoteProcessor is the Java port of vaultUpdateObjectAWSFinanceDetails in
+ * vsdkSparkSampleProcessMessage/lambda_function.py: it queries the records of a Spark message, generates a quote
+ * for each record and writes the quotes back with one bulk update per page.
+ *
+ * The ids are split into chunks that are queried concurrently, and each page is handed to quote generation and the
+ * bulk update while the next page is fetched. Records sent inline in the message, as enriched items, are not queried:
+ * they go straight to quote generation and the bulk update. All Vault calls run on the shared executor, whose size bounds the
+ * number of calls in flight; the burst budget itself is enforced by the client's VaultRateGovernor.
+ */
+public class LoanQuoteProcessor {
+    // Vault bulk updates accept up to 500 records, so a page never holds more
+    public static final int MAX_PAGE_SIZE = 500;
+    // Keeps each VQL statement well within the Vault query length limit
+    static final int MAX_QUERY_CHARS = 20000;
+    private static final String QUERY_FIELDS = "id, name__v, surname__c, item__c, loan_amount__c, "
+            + "loan_period_months__c, number_of_quotes__c";
+    private static Logger logger = Logger.getLogger(LoanQuoteProcessor.class);
+
+    private final VaultRestClient vault;
+    private final int pageSize;
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    /*
+     * @param vault, the client used for the Vault REST API calls
+     * @param pageSize, the number of records per query page and bulk update
+     * @param chunkSize, the number of ids per query
+     * @param executor, runs the queries and updates; tasks never wait on each other, so any pool size is safe
+     */
+    public LoanQuoteProcessor(VaultRestClient vault, int pageSize, int chunkSize, ExecutorService executor) {
+        this.vault = vault;
+        this.pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        this.chunkSize = Math.max(1, chunkSize);
+        this.executor = executor;
+    }
+
+    /*
+     * process generates and saves the quotes of the records in a Spark message
+     * @param objectName, the object of the records
+     * @param ids, the record ids from the message items
+     * @param event, the Vault event the message was created from
+     * @param sessionId, an active sessionId for the vault
+     * @returns processed, true if every page was queried and updated
+     * @throws InvalidVaultSessionException, if Vault rejected the session; thrown once every call has finished
+     */
+    public boolean process(String objectName, List<String> ids, String event, String sessionId) {
+        return process(objectName, ids, JsonNodeFactory.instance.arrayNode(), event, sessionId);
+    }
+
+    /*
+     * process generates and saves the quotes of the records in a Spark message, querying only the records not sent inline
+     * @param ids, the ids of the records to query
+     * @param rows, the records sent inline, in the shape of the query rows
+     * @returns processed, true if every page was queried and updated
+     * @throws InvalidVaultSessionException, if Vault rejected the session; thrown once every call has finished
+     */
+    public boolean process(String objectName, List<String> ids, ArrayNode rows, String event, String sessionId) {
+        if (ids.isEmpty() && rows.size() == 0) {
+            return true;
+        }
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        InvocationMetrics metrics = InvocationMetrics.current();
+        Queue<Future<Boolean>> updates = new ConcurrentLinkedQueue<>();
+        for (int offset = 0; offset < rows.size(); offset += pageSize) {
+            ArrayNode page = JsonNodeFactory.instance.arrayNode(Math.min(pageSize, rows.size() - offset));
+            for (int i = offset; i < Math.min(offset + pageSize, rows.size()); i++) {
+                page.add(rows.get(i));
+            }
+            updates.add(submit(metrics, () -> updatePage(objectName, page, event, sessionId, now)));
+        }
+        List<Future<Boolean>> queries = new ArrayList<>();
+        if (!ids.isEmpty()) {
+            for (String vql : buildQueries(objectName, ids)) {
+                queries.add(submit(metrics, () -> queryChunk(objectName, vql, event, sessionId, now, metrics, updates)));
+            }
+        }
+
+        // Every update is queued by the time its chunk's query task has finished
+        Outcome outcome = new Outcome();
+        for (Future<Boolean> query : queries) {
+            outcome.await(query);
+        }
+        for (Future<Boolean> update : updates) {
+            outcome.await(update);
+        }
+        // The caller retries with a new session only after this session's calls are done
+        if (outcome.rejectedSession != null) {
+            throw outcome.rejectedSession;
+        }
+        return outcome.processed;
+    }
+
+    /*
+     * queryChunk walks the pages of one chunk's query, submitting each page's quotes for update before
+     * fetching the next page
+     * @returns queried, true if every page was retrieved
+     */
+    private boolean queryChunk(String objectName, String vql, String event, String sessionId, LocalDateTime now,
+                               InvocationMetrics metrics, Queue<Future<Boolean>> updates) {
+        JsonNode response = vault.query(sessionId, vql);
+        while (response != null) {
+            JsonNode data = response.path("data");
+            if (data.size() > 0) {
+                updates.add(submit(metrics, () -> updatePage(objectName, data, event, sessionId, now)));
+            }
+
+            // Process the subsequent pages if needed
+            JsonNode nextPage = response.path("responseDetails").path("next_page");
+            if (!nextPage.isTextual()) {
+                return true;
+            }
+            response = vault.queryPage(sessionId, nextPage.asText());
+        }
+        return false;
+    }
+
+    private boolean updatePage(String objectName, JsonNode data, String event, String sessionId, LocalDateTime now) {
+        ArrayNode quotes = LoanQuoteGenerator.generate(data, event, now);
+        logger.debug("Quoted " + quotes.size() + " of " + data.size() + " record(s)");
+        return quotes.size() == 0 || vault.updateRecords(sessionId, objectName, quotes) != null;
+    }
+
+    /*
+     * buildQueries splits the ids into chunks of at most chunkSize ids and MAX_QUERY_CHARS characters, one query each;
+     * PAGESIZE sets the page size from API v20.3 on, where LIMIT caps the total number of results instead
+     */
+    List<String> buildQueries(String objectName, List<String> ids) {
+        String prefix = "SELECT " + QUERY_FIELDS + " FROM " + objectName + " WHERE id CONTAINS (";
+        String suffix = ") PAGESIZE " + pageSize;
+        List<String> queries = new ArrayList<>();
+        StringBuilder vql = new StringBuilder(MAX_QUERY_CHARS);
+        int count = 0;
+        for (String id : ids) {
+            String literal = "'" + id.replace("'", "\\'") + "'";
+            if (count > 0 && (count == chunkSize || vql.length() + literal.length() + 1 + suffix.length() > MAX_QUERY_CHARS)) {
+                queries.add(vql.append(suffix).toString());
+                vql.setLength(0);
+                count = 0;
+            }
+            vql.append(count == 0 ? prefix : ",").append(literal);
+            count++;
+        }
+        queries.add(vql.append(suffix).toString());
+        return queries;
+    }
+
+    /*
+     * submit runs the task on the executor, recording into the metrics of the invocation that submitted it
+     */
+    private Future<Boolean> submit(InvocationMetrics metrics, Callable<Boolean> task) {
+        return executor.submit(() -> {
+            metrics.bind();
+            try {
+                return task.call();
+            } finally {
+                metrics.unbind();
+            }
+        });
+    }
+
+    /*
+     * Outcome collects the results of the Vault calls of one message
+     */
+    private static final class Outcome {
+        private boolean processed = true;
+        private InvalidVaultSessionException rejectedSession;
+
+        private void await(Future<Boolean> result) {
+            try {
+                processed &= result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error(e.getMessage());
+                processed = false;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InvalidVaultSessionException) {
+                    rejectedSession = (InvalidVaultSessionException) e.getCause();
+                } else {
+                    logger.error("Vault call failed: " + e.getCause());
+                }
+                processed = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.veeva.vault;
+
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/*
+ * PublicKeyCache holds parsed Vault signing certificate public keys, keyed by X-VaultAPISignature-CertificateId.
+ * Entries expire after a fixed time-to-live and the cache never holds more than maxEntries keys.
+ * Concurrent misses for the same certificate id are merged so the slow path runs once.
+ * Hits, misses and evictions are kept as totals for the life of the cache and also counted into the metrics of the
+ * current invocation as PublicKeyCacheHits, PublicKeyCacheMisses and PublicKeyCacheEvictions.
+ */
+public class PublicKeyCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final SingleFlight<String, PublicKey> loads = new SingleFlight<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PublicKeyCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /*
+     * get returns the cached public key for the certificate id, loading it on a miss
+     * @param certificateId, the id of the Vault signing certificate
+     * @param loader, the slow path used to load the public key when it is not cached; may return null
+     * @returns publicKey, the public key or null if the loader could not produce one
+     */
+    public PublicKey get(String certificateId, Function<String, PublicKey> loader) {
+        PublicKey publicKey = getIfPresent(certificateId);
+        if (publicKey != null) {
+            hits.incrementAndGet();
+            InvocationMetrics.current().count("PublicKeyCacheHits");
+            return publicKey;
+        }
+
+        misses.incrementAndGet();
+        InvocationMetrics.current().count("PublicKeyCacheMisses");
+        return loads.execute(certificateId, () -> {
+            // A load that finished between the lookup above and joining this flight may already have filled the entry
+            PublicKey loaded = getIfPresent(certificateId);
+            if (loaded == null) {
+                loaded = loader.apply(certificateId);
+                if (loaded != null) {
+                    put(certificateId, loaded);
+                }
+            }
+            return loaded;
+        });
+    }
+
+    /*
+     * invalidate removes the cached public key for the certificate id
+     * @param certificateId, the id of the Vault signing certificate
+     */
+    public void invalidate(String certificateId) {
+        entries.remove(certificateId);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "PublicKeyCache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + "}";
+    }
+
+    private PublicKey getIfPresent(String certificateId) {
+        Entry entry = entries.get(certificateId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            if (entries.remove(certificateId, entry)) {
+                recordEviction();
+            }
+            return null;
+        }
+        return entry.publicKey;
+    }
+
+    private void put(String certificateId, PublicKey publicKey) {
+        long now = System.nanoTime();
+        entries.put(certificateId, new Entry(publicKey, now + ttlNanos));
+
+        // Only a handful of certificate ids are live at any time, so a linear scan for the victim is cheap
+        while (entries.size() > maxEntries) {
+            Map.Entry<String, Entry> victim = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (victim == null || candidate.getValue().expiresAt - victim.getValue().expiresAt < 0) {
+                    victim = candidate;
+                }
+            }
+            if (victim != null && entries.remove(victim.getKey(), victim.getValue())) {
+                recordEviction();
+            }
+        }
+    }
+
+    private void recordEviction() {
+        evictions.incrementAndGet();
+        InvocationMetrics.current().count("PublicKeyCacheEvictions");
+    }
+
+    private static final class Entry {
+        private final PublicKey publicKey;
+        private final long expiresAt;
+
+        private Entry(PublicKey publicKey, long expiresAt) {
+            this.publicKey = publicKey;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
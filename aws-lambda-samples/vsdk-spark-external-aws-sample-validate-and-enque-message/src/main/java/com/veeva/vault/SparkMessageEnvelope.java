@@ -0,0 +1,160 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/*
+ * SparkMessageEnvelope is the routing information of a Spark message body:
+ * {"message_id": ..., "message": {"attributes": {"object": ..., "event": ...}, "items": [...]}, ...}
+ *
+ * parse checks the envelope in a single streaming pass without building a tree; item values are only counted.
+ * Every item must be a string, as Spark sends them.
+ */
+public class SparkMessageEnvelope {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String messageId;
+    private final String object;
+    private final String event;
+    private final int itemCount;
+    private final int sizeBytes;
+
+    SparkMessageEnvelope(String messageId, String object, String event, int itemCount, int sizeBytes) {
+        this.messageId = messageId;
+        this.object = object;
+        this.event = event;
+        this.itemCount = itemCount;
+        this.sizeBytes = sizeBytes;
+    }
+
+    /*
+     * parse validates the Spark message body and extracts its attributes and item count
+     * @param body, the body received as a json string
+     * @param maxBytes, the largest accepted body in UTF-8 bytes
+     * @param maxItems, the largest accepted number of message items
+     * @returns envelope, the attributes and item count of the message
+     * @throws InvalidSparkMessageException, if the body is too large or is not a valid Spark message
+     */
+    public static SparkMessageEnvelope parse(String body, int maxBytes, int maxItems) throws InvalidSparkMessageException {
+        if (body == null || body.isEmpty()) {
+            throw new InvalidSparkMessageException("Message body is empty");
+        }
+        // Reject on the character count first; a UTF-8 body is never shorter in bytes than in chars
+        if (body.length() > maxBytes) {
+            throw new InvalidSparkMessageException("Message body exceeds " + maxBytes + " bytes");
+        }
+        int sizeBytes = SqsBatchEnqueuer.utf8Length(body);
+        if (sizeBytes > maxBytes) {
+            throw new InvalidSparkMessageException("Message body exceeds " + maxBytes + " bytes");
+        }
+
+        String messageId = null;
+        String object = null;
+        String event = null;
+        int itemCount = -1;
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT, "Message body is not a JSON object");
+            boolean hasMessage = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("message_id".equals(field) && value == JsonToken.VALUE_STRING) {
+                    messageId = parser.getText();
+                    continue;
+                }
+                if (!"message".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                expect(value, JsonToken.START_OBJECT, "message is not an object");
+                hasMessage = true;
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String messageField = parser.getCurrentName();
+                    JsonToken messageValue = parser.nextToken();
+                    if ("attributes".equals(messageField)) {
+                        expect(messageValue, JsonToken.START_OBJECT, "message.attributes is not an object");
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String attribute = parser.getCurrentName();
+                            JsonToken attributeValue = parser.nextToken();
+                            if ("object".equals(attribute) && attributeValue == JsonToken.VALUE_STRING) {
+                                object = parser.getText();
+                            } else if ("event".equals(attribute) && attributeValue == JsonToken.VALUE_STRING) {
+                                event = parser.getText();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else if ("items".equals(messageField)) {
+                        expect(messageValue, JsonToken.START_ARRAY, "message.items is not an array");
+                        itemCount = 0;
+                        JsonToken item;
+                        while ((item = parser.nextToken()) != JsonToken.END_ARRAY) {
+                            // Spark sends every item as a string, record ids and enriched items alike
+                            expect(item, JsonToken.VALUE_STRING, "message.items holds a value that is not a string");
+                            if (++itemCount > maxItems) {
+                                throw new InvalidSparkMessageException("message.items exceeds " + maxItems + " items");
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw new InvalidSparkMessageException("Unexpected content after the message body");
+            }
+            if (!hasMessage) {
+                throw new InvalidSparkMessageException("message is missing");
+            }
+        } catch (JsonProcessingException e) {
+            throw new InvalidSparkMessageException("Message body is not valid JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new InvalidSparkMessageException("Unable to read message body: " + e.getMessage());
+        }
+
+        if (object == null || object.isEmpty()) {
+            throw new InvalidSparkMessageException("message.attributes.object is missing");
+        }
+        if (event == null || event.isEmpty()) {
+            throw new InvalidSparkMessageException("message.attributes.event is missing");
+        }
+        if (itemCount < 1) {
+            throw new InvalidSparkMessageException("message.items is missing or empty");
+        }
+        return new SparkMessageEnvelope(messageId, object, event, itemCount, sizeBytes);
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected, String error) throws InvalidSparkMessageException {
+        if (actual != expected) {
+            throw new InvalidSparkMessageException(error);
+        }
+    }
+
+    /*
+     * getMessageId returns the optional top-level message_id, or null when the message has none
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getObject() {
+        return object;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getSizeBytes() {
+        return sizeBytes;
+    }
+}
@@ -0,0 +1,211 @@
+package com.veeva.vault;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * SparkPayloadTransport fits Spark message bodies into SQS messages and reads them back on the consumer side.
+ * Bodies up to the compression threshold are sent as they are. Larger bodies are gzip-compressed and base64-encoded,
+ * and a body still too large for an SQS message is stored in S3 and replaced by a small pointer message
+ * (a claim check). The contentEncoding message attribute tells the consumer which form it received; the routing
+ * attributes of the entry are left untouched.
+ *
+ * Only SqsMessageHandler reads the encoded forms; the Python vsdkSparkSampleProcessMessage consumer reads the body
+ * as it is. Encoding is therefore opt-in: fromEnvironment only compresses and claim-checks when
+ * SQS_PAYLOAD_ENCODING_ENABLED is true, and otherwise sends every body raw.
+ */
+public class SparkPayloadTransport {
+    public static final String CONTENT_ENCODING = "contentEncoding";
+    public static final String GZIP_BASE64 = "gzip+base64";
+    public static final String S3_GZIP = "s3+gzip";
+    static final String CLAIM_CHECK_PREFIX = "SparkMessages/";
+    // Set when every consumer of the queue reads the contentEncoding attribute, e.g. SqsMessageHandler
+    static final boolean ENCODING_ENABLED = Boolean.parseBoolean(System.getenv("SQS_PAYLOAD_ENCODING_ENABLED"));
+    private static Logger logger = Logger.getLogger(SparkPayloadTransport.class);
+
+    private final Supplier<AmazonS3> s3Client;
+    private final String bucketName;
+    private final int compressThresholdBytes;
+    private final int maxMessageBytes;
+
+    /*
+     * @param s3Client, the client used to store and fetch claim-checked bodies
+     * @param bucketName, the bucket claim-checked bodies are stored in
+     * @param compressThresholdBytes, the largest entry sent uncompressed
+     * @param maxMessageBytes, the largest entry sent through SQS, body and attributes included
+     */
+    public SparkPayloadTransport(Supplier<AmazonS3> s3Client, String bucketName, int compressThresholdBytes,
+                                 int maxMessageBytes) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.compressThresholdBytes = compressThresholdBytes;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /*
+     * fromEnvironment builds the transport on the BUCKET_NAME bucket. With SQS_PAYLOAD_ENCODING_ENABLED set it
+     * compresses entries above SQS_COMPRESS_THRESHOLD_BYTES (64 KB by default) and claim-checks those still above the
+     * SQS message limit; without it every entry is sent raw, and still decoded when it arrives encoded
+     * @param s3Client, the client used to store and fetch claim-checked bodies
+     */
+    public static SparkPayloadTransport fromEnvironment(Supplier<AmazonS3> s3Client) {
+        if (!ENCODING_ENABLED) {
+            return new SparkPayloadTransport(s3Client, System.getenv("BUCKET_NAME"), Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+        return new SparkPayloadTransport(s3Client,
+                System.getenv("BUCKET_NAME"),
+                LambdaHandler.getIntEnv("SQS_COMPRESS_THRESHOLD_BYTES", 64 * 1024),
+                SqsBatchEnqueuer.MAX_BATCH_BYTES);
+    }
+
+    /*
+     * encode replaces the body of an entry with its compressed or claim-checked form when it is above the threshold
+     * @param entry, an entry holding the raw body and its message attributes
+     * @returns encoded, false if the body had to be stored in S3 and could not be
+     */
+    public boolean encode(SendMessageBatchRequestEntry entry) {
+        InvocationMetrics metrics = InvocationMetrics.current();
+        if (SqsBatchEnqueuer.entrySize(entry) <= compressThresholdBytes) {
+            metrics.put("EnqueuedBytes", SqsBatchEnqueuer.entrySize(entry), InvocationMetrics.BYTES);
+            return true;
+        }
+
+        long start = System.nanoTime();
+        byte[] compressed = gzip(entry.getMessageBody());
+        entry.withMessageBody(Base64.getEncoder().encodeToString(compressed))
+                .addMessageAttributesEntry(CONTENT_ENCODING, stringAttribute(GZIP_BASE64));
+        metrics.time("CompressionTime", start);
+        if (SqsBatchEnqueuer.entrySize(entry) <= maxMessageBytes) {
+            metrics.count("CompressedMessages");
+            metrics.put("EnqueuedBytes", SqsBatchEnqueuer.entrySize(entry), InvocationMetrics.BYTES);
+            return true;
+        }
+
+        // Still too large: store the compressed body and enqueue a pointer to it
+        String key = CLAIM_CHECK_PREFIX + UUID.randomUUID() + ".json.gz";
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(compressed.length);
+        metadata.setContentType("application/json");
+        metadata.setContentEncoding("gzip");
+        long storeStart = System.nanoTime();
+        try {
+            s3Client.get().putObject(bucketName, key, new ByteArrayInputStream(compressed), metadata);
+        } catch (SdkClientException e) {
+            logger.error("Unable to store message body in " + bucketName + "/" + key + ": " + e.getMessage());
+            return false;
+        }
+        metrics.time("ClaimCheckTime", storeStart);
+        metrics.count("ClaimCheckMessages");
+
+        ObjectNode pointer = LambdaHandler.objectMapper.get().createObjectNode()
+                .put("s3Bucket", bucketName)
+                .put("s3Key", key);
+        entry.withMessageBody(pointer.toString())
+                .addMessageAttributesEntry(CONTENT_ENCODING, stringAttribute(S3_GZIP));
+        metrics.put("EnqueuedBytes", SqsBatchEnqueuer.entrySize(entry), InvocationMetrics.BYTES);
+        return true;
+    }
+
+    /*
+     * decode returns the Spark message body carried by an SQS message
+     * @param body, the SQS message body
+     * @param contentEncoding, the contentEncoding message attribute, null for a raw body
+     * @returns body, the original Spark message body, an empty string if its claim-checked body is no longer in S3,
+     * or null if it could not be read
+     */
+    public String decode(String body, String contentEncoding) {
+        if (contentEncoding == null) {
+            return body;
+        }
+        try {
+            if (GZIP_BASE64.equals(contentEncoding)) {
+                return gunzip(new ByteArrayInputStream(Base64.getDecoder().decode(body)));
+            }
+            if (S3_GZIP.equals(contentEncoding)) {
+                JsonNode pointer = LambdaHandler.objectMapper.get().readTree(body);
+                String bucket = pointer.path("s3Bucket").asText();
+                String key = pointer.path("s3Key").asText();
+                try (S3Object object = s3Client.get().getObject(bucket, key)) {
+                    return gunzip(object.getObjectContent());
+                } catch (AmazonS3Exception e) {
+                    if (e.getStatusCode() == 404) {
+                        // Either a repeated delivery of a processed message or a body lost before processing, e.g. to
+                        // the bucket's lifecycle rules; retries cannot bring it back, so the message is not retried
+                        logger.error("Claim-checked message body " + bucket + "/" + key + " is missing");
+                        InvocationMetrics.current().count("ClaimCheckMissing");
+                        return "";
+                    }
+                    throw e;
+                }
+            }
+            logger.error("Unknown content encoding " + contentEncoding);
+        } catch (IOException | IllegalArgumentException | SdkClientException e) {
+            logger.error("Unable to read " + contentEncoding + " message body: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /*
+     * discard deletes the S3 object behind a claim-checked message once the message has been processed;
+     * a failed delete only leaves the object for the bucket's lifecycle rules
+     * @param body, the SQS message body
+     * @param contentEncoding, the contentEncoding message attribute
+     */
+    public void discard(String body, String contentEncoding) {
+        if (!S3_GZIP.equals(contentEncoding)) {
+            return;
+        }
+        try {
+            JsonNode pointer = LambdaHandler.objectMapper.get().readTree(body);
+            s3Client.get().deleteObject(pointer.path("s3Bucket").asText(), pointer.path("s3Key").asText());
+        } catch (IOException | SdkClientException e) {
+            logger.error("Unable to delete claim-checked message body: " + e.getMessage());
+        }
+    }
+
+    static byte[] gzip(String body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(512, body.length() / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Writes to a ByteArrayOutputStream do not fail
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    static String gunzip(InputStream compressed) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+        try (GZIPInputStream in = new GZIPInputStream(compressed, 8192)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static MessageAttributeValue stringAttribute(String value) {
+        return new MessageAttributeValue().withDataType("String").withStringValue(value);
+    }
+}
@@ -0,0 +1,162 @@
+package com.veeva.vault;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * SparkRequestFilter turns away Spark requests that can be rejected without any I/O or public-key crypto:
+ * requests missing a signature header, requests whose signed X-VaultAPISignature-Date is outside the allowed window,
+ * and replays of a request that was already accepted.
+ *
+ * A Vault retry of an undelivered message carries the X-VaultAPISignature-Date of the original delivery. The max-age
+ * check therefore rejects every retry that arrives more than maxAgeSeconds after the first attempt, and such a message
+ * is never delivered. maxAgeSeconds must cover the time over which Vault retries the connection's messages; 0 turns
+ * the check off and leaves repeated deliveries to the idempotency store.
+ *
+ * Accepted signatures are remembered in buckets of one minute, by signature date. A replay carries the same date, so
+ * it is looked up in a single bucket, and buckets are dropped once their dates fall out of the window. Lookups are
+ * exact, so a new message is never taken for a replay; when the cache is full the oldest bucket goes early and a
+ * replay of it is left to the signature check and the idempotency store.
+ */
+public class SparkRequestFilter {
+    public static final String MISSING_HEADERS = "MissingHeaders";
+    public static final String MALFORMED_DATE = "MalformedDate";
+    public static final String STALE_REQUEST = "StaleRequest";
+    public static final String REPLAYED_REQUEST = "ReplayedRequest";
+
+    private static final String[] REQUIRED_HEADERS = {
+            "X-VaultAPI-SignatureV2",
+            "X-VaultAPISignature-CertificateId",
+            "X-VaultAPISignature-Date",
+            "X-VaultAPISignature-URL"};
+    private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    // RSA signatures are uniformly random, so 24 base64 characters (144 bits) identify one without collisions
+    private static final int SIGNATURE_KEY_CHARS = 24;
+
+    private final long maxAgeMillis;
+    private final long maxSkewMillis;
+    private final int replayCacheEntries;
+    private final ConcurrentMap<Long, Set<String>> accepted = new ConcurrentHashMap<>();
+    private final AtomicInteger acceptedCount = new AtomicInteger();
+
+    /*
+     * @param maxAgeSeconds, how old a signature date may be; 0 turns the window check off
+     * @param maxSkewSeconds, how far a signature date may be ahead of this clock
+     * @param replayCacheEntries, the number of accepted signatures remembered; 0 turns replay detection off
+     */
+    public SparkRequestFilter(int maxAgeSeconds, int maxSkewSeconds, int replayCacheEntries) {
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+        this.maxSkewMillis = TimeUnit.SECONDS.toMillis(maxSkewSeconds);
+        this.replayCacheEntries = replayCacheEntries;
+    }
+
+    /*
+     * fromEnvironment builds the filter from the SPARK_REQUEST_* and REPLAY_CACHE_MAX_ENTRIES Lambda environment variables
+     */
+    public static SparkRequestFilter fromEnvironment() {
+        return new SparkRequestFilter(
+                LambdaHandler.getIntEnv("SPARK_REQUEST_MAX_AGE_SECONDS", 600),
+                LambdaHandler.getIntEnv("SPARK_REQUEST_MAX_SKEW_SECONDS", 60),
+                LambdaHandler.getIntEnv("REPLAY_CACHE_MAX_ENTRIES", 100000));
+    }
+
+    /*
+     * check runs the cheap checks on the request headers
+     * @param headers, the map containing the headers received
+     * @param nowMillis, the current time
+     * @returns rejection, the reason the request is rejected, or null if it may go on to signature verification
+     */
+    public String check(Map<String, String> headers, long nowMillis) {
+        for (String name : REQUIRED_HEADERS) {
+            String value = header(headers, name);
+            if (value == null || value.trim().isEmpty()) {
+                return MISSING_HEADERS;
+            }
+        }
+
+        long signedAt;
+        try {
+            signedAt = Instant.parse(header(headers, "X-VaultAPISignature-Date").trim()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return MALFORMED_DATE;
+        }
+        if (maxAgeMillis > 0 && (signedAt < nowMillis - maxAgeMillis || signedAt > nowMillis + maxSkewMillis)) {
+            return STALE_REQUEST;
+        }
+
+        if (replayCacheEntries > 0) {
+            Set<String> bucket = accepted.get(Math.floorDiv(signedAt, BUCKET_MILLIS));
+            if (bucket != null && bucket.contains(signatureKey(headers))) {
+                return REPLAYED_REQUEST;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * accept remembers the signature of a request that passed verification and was enqueued, so replays are rejected
+     * @param headers, the headers of a request that passed check
+     * @param nowMillis, the current time
+     */
+    public void accept(Map<String, String> headers, long nowMillis) {
+        if (replayCacheEntries <= 0) {
+            return;
+        }
+        long signedAt = Instant.parse(header(headers, "X-VaultAPISignature-Date").trim()).toEpochMilli();
+        Set<String> bucket = accepted.computeIfAbsent(Math.floorDiv(signedAt, BUCKET_MILLIS),
+                key -> ConcurrentHashMap.newKeySet());
+        if (bucket.add(signatureKey(headers))) {
+            acceptedCount.incrementAndGet();
+        }
+        evict(nowMillis);
+    }
+
+    /*
+     * evict drops the buckets whose dates no longer pass the window, then the oldest buckets while over capacity
+     */
+    private void evict(long nowMillis) {
+        if (maxAgeMillis > 0) {
+            long oldest = Math.floorDiv(nowMillis - maxAgeMillis, BUCKET_MILLIS);
+            for (Iterator<Map.Entry<Long, Set<String>>> buckets = accepted.entrySet().iterator(); buckets.hasNext(); ) {
+                Map.Entry<Long, Set<String>> bucket = buckets.next();
+                if (bucket.getKey() < oldest) {
+                    acceptedCount.addAndGet(-bucket.getValue().size());
+                    buckets.remove();
+                }
+            }
+        }
+        while (acceptedCount.get() > replayCacheEntries && accepted.size() > 1) {
+            Long oldest = null;
+            for (Long key : accepted.keySet()) {
+                if (oldest == null || key < oldest) {
+                    oldest = key;
+                }
+            }
+            Set<String> bucket = accepted.remove(oldest);
+            if (bucket != null) {
+                acceptedCount.addAndGet(-bucket.size());
+            }
+        }
+    }
+
+    private static String signatureKey(Map<String, String> headers) {
+        String signature = header(headers, "X-VaultAPI-SignatureV2").trim();
+        return signature.substring(0, Math.min(SIGNATURE_KEY_CHARS, signature.length()));
+    }
+
+    /*
+     * header reads a header by its canonical name or, as API Gateway v2 delivers it, in lower case
+     */
+    static String header(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        return value != null ? value : headers.get(name.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,217 @@
+package com.veeva.vault;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * SparkSignatureVerifier verifies the X-VaultAPI-SignatureV2 of a Spark message without building the string-to-verify.
+ * The header lines, body and URL are encoded as UTF-8 straight into a pooled SHA256withRSA Signature,
+ * producing exactly the bytes of LambdaHandler.prepareDataToVerify. Header names are lowercased with Locale.ROOT
+ * there and here, so the canonical form does not depend on the JVM's default locale.
+ *
+ * The pool is a bounded queue rather than a ThreadLocal: SparkValidatorServer runs every request on a new virtual
+ * thread, which would create and drop a Signature per request. A verification takes a state from the pool, or
+ * creates one when it is empty, and hands it back afterwards; states beyond the pool size are dropped.
+ */
+public class SparkSignatureVerifier {
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String HEADER_PREFIX = "X-VaultAPISignature-";
+    private static final String HEADER_PREFIX_LOWER = "x-vaultapisignature-";
+    private static final int BUFFER_SIZE = 8192;
+    static final int POOL_SIZE = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final BlockingQueue<VerifierState> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private SparkSignatureVerifier() {
+    }
+
+    /*
+     * verify verifies the spark message signature against the canonical headers, body and url
+     * @param headers, the map containing the headers received
+     * @param body, the body received as a json string
+     * @param xVaultAPISignature, the base64 signature of the message
+     * @param publicKey, the public key used to verify the message
+     * @returns verified, a boolean value indicating whether the spark message was valid
+     */
+    public static boolean verify(Map<String, String> headers, String body, String xVaultAPISignature, PublicKey publicKey)
+            throws InvalidKeyException, SignatureException {
+        VerifierState state = acquire();
+        try {
+            Signature signature = state.begin(publicKey);
+            update(state, headers, body);
+            return signature.verify(Base64.getMimeDecoder().decode(xVaultAPISignature));
+        } finally {
+            POOL.offer(state);
+        }
+    }
+
+    /*
+     * verify verifies a signature against an already built string-to-verify
+     * @param stringToVerify, the string that will be used to verify the spark message
+     * @param xVaultAPISignature, the base64 signature of the message
+     * @param publicKey, the public key used to verify the message
+     * @returns verified, a boolean value indicating whether the spark message was valid
+     */
+    public static boolean verify(String stringToVerify, String xVaultAPISignature, PublicKey publicKey)
+            throws InvalidKeyException, SignatureException {
+        VerifierState state = acquire();
+        try {
+            Signature signature = state.begin(publicKey);
+            state.update(stringToVerify);
+            state.flush();
+            return signature.verify(Base64.getMimeDecoder().decode(xVaultAPISignature));
+        } finally {
+            POOL.offer(state);
+        }
+    }
+
+    private static VerifierState acquire() {
+        VerifierState state = POOL.poll();
+        return state != null ? state : new VerifierState();
+    }
+
+    /*
+     * pooledStates returns the number of idle states in the pool
+     */
+    static int pooledStates() {
+        return POOL.size();
+    }
+
+    /*
+     * update feeds the string-to-verify into the signature:
+     * Lowercase(<HeaderName>)+":"+Trim(<value>)+"\n" for each X-VaultAPISignature-* header sorted by name,
+     * then the body, a newline and the X-VaultAPISignature-URL header value
+     */
+    static void update(VerifierState state, Map<String, String> headers, String body) throws SignatureException {
+        String[] headerKeys = new String[headers.size()];
+        int headerCount = 0;
+        for (String key : headers.keySet()) {
+            if (key.startsWith(HEADER_PREFIX) || key.startsWith(HEADER_PREFIX_LOWER)) {
+                headerKeys[headerCount++] = key;
+            }
+        }
+        Arrays.sort(headerKeys, 0, headerCount);
+
+        for (int i = 0; i < headerCount; i++) {
+            String key = headerKeys[i];
+            String value = headers.get(key);
+            state.updateLowerCase(key);
+            state.put((byte) ':');
+            state.update(value == null ? "" : value.trim());
+            state.put((byte) '\n');
+        }
+
+        // StringBuilder.append(null) writes "null", which is what the string-to-verify contains for a missing body
+        state.update(String.valueOf(body));
+        state.put((byte) '\n');
+
+        String url = headers.get("X-VaultAPISignature-URL");
+        if (url == null) {
+            url = headers.get("x-vaultapisignature-url");
+        }
+        if (url != null) {
+            state.update(url);
+        }
+        state.flush();
+    }
+
+    /*
+     * VerifierState is a pooled Signature together with the encoder and buffer used to feed it
+     */
+    static final class VerifierState {
+        private final Signature signature;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        VerifierState() {
+            this(newSignature());
+        }
+
+        /*
+         * @param signature, the signature the string-to-verify is fed into, e.g. one that records the bytes in tests
+         */
+        VerifierState(Signature signature) {
+            this.signature = signature;
+        }
+
+        private static Signature newSignature() {
+            try {
+                return Signature.getInstance(SIGNATURE_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /*
+         * begin resets the signature for a new message; bytes left over from a failed verification are discarded
+         */
+        Signature begin(PublicKey publicKey) throws InvalidKeyException {
+            buffer.clear();
+            signature.initVerify(publicKey);
+            return signature;
+        }
+
+        private void put(byte value) throws SignatureException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put(value);
+        }
+
+        /*
+         * updateLowerCase writes an ASCII header name lowercased without allocating, which is what
+         * toLowerCase(Locale.ROOT) gives for ASCII; other names take the String path
+         */
+        private void updateLowerCase(String value) throws SignatureException {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) >= 0x80) {
+                    update(value.toLowerCase(Locale.ROOT));
+                    return;
+                }
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                put((byte) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c));
+            }
+        }
+
+        private void update(String value) throws SignatureException {
+            CharBuffer in = CharBuffer.wrap(value);
+            encoder.reset();
+            while (encoder.encode(in, buffer, true).isOverflow()) {
+                flush();
+            }
+            CoderResult result;
+            while ((result = encoder.flush(buffer)).isOverflow()) {
+                flush();
+            }
+            if (result.isError()) {
+                throw new SignatureException("Unable to encode string-to-verify");
+            }
+        }
+
+        private void flush() throws SignatureException {
+            if (buffer.position() > 0) {
+                signature.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * SparkValidatorServer serves the validate-and-enqueue logic of LambdaHandler as a standalone HTTP service, for
+ * sustained volumes where one always-warm container is cheaper than per-invocation Lambda pricing.
+ * Every request goes through LambdaHandler.processMessage, so the certificate cache, signature check and SQS
+ * enqueuer are the ones the Lambda path uses, configured by the same environment variables.
+ *
+ * Requests run on virtual threads on JDK 21 and later, and on a cached thread pool on older JVMs.
+ * At most SERVER_MAX_IN_FLIGHT requests are processed at once; the rest are answered 429 with Retry-After straight
+ * away, so a burst cannot pile up work. On shutdown (SIGTERM) the listener is closed, new requests get 503, and the
+ * requests in flight have SERVER_SHUTDOWN_GRACE_SECONDS to finish.
+ * With SQS_BATCH_LINGER_MILLIS set (a few milliseconds is enough), concurrent requests share SendMessageBatch calls.
+ *
+ * Usage: java -cp vsdk-spark-external-aws-sample-validate-and-enque-message-1.0-SNAPSHOT.jar com.veeva.vault.SparkValidatorServer
+ */
+public class SparkValidatorServer {
+    private static Logger logger = Logger.getLogger(SparkValidatorServer.class);
+
+    static {
+        // Responses are written as headers then body; without TCP_NODELAY, Nagle's algorithm and delayed ACKs hold
+        // each response back by tens of milliseconds. Read once, when the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final LambdaHandler handler;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean draining;
+
+    /*
+     * @param handler, the handler whose processMessage validates and enqueues each request
+     * @param port, the port to listen on, or 0 for a free port
+     * @param maxInFlight, the largest number of requests processed at once
+     */
+    public SparkValidatorServer(LambdaHandler handler, int port, int maxInFlight) throws IOException {
+        this.handler = handler;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::handle);
+        server.createContext("/health", this::health);
+        server.setExecutor(executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        SparkValidatorServer server = new SparkValidatorServer(new LambdaHandler(),
+                LambdaHandler.getIntEnv("PORT", 8080),
+                LambdaHandler.getIntEnv("SERVER_MAX_IN_FLIGHT", 256));
+        int graceSeconds = LambdaHandler.getIntEnv("SERVER_SHUTDOWN_GRACE_SECONDS", 20);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(graceSeconds), "server-shutdown"));
+        server.start();
+        logger.info("Listening on port " + server.getPort());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /*
+     * getRejectedRequests returns the number of requests answered 429 because the server was saturated
+     */
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+    /*
+     * stop closes the listener and waits for the requests in flight
+     * @param graceSeconds, how long to wait in total before the remaining requests are abandoned; the listener and the
+     * request threads share one deadline
+     */
+    public void stop(int graceSeconds) {
+        logger.info("Shutting down, waiting up to " + graceSeconds + "s for requests in flight");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(graceSeconds);
+        draining = true;
+        server.stop(graceSeconds);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                logger.error("Requests still in flight after " + graceSeconds + "s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (draining) {
+                respond(exchange, 503, "Shutting Down");
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Method Not Allowed");
+                return;
+            }
+            if (!inFlight.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "Too Many Requests");
+                return;
+            }
+            try {
+                String body = readBody(exchange, LambdaHandler.MAX_MESSAGE_BYTES);
+                if (body == null) {
+                    // The answer processMessage gives an oversized body, without reading all of it
+                    respond(exchange, 400, "Invalid Message");
+                    return;
+                }
+                InvocationMetrics metrics = InvocationMetrics.begin();
+                try {
+                    APIGatewayV2HTTPResponse response = handler.processMessage(headers(exchange), body, metrics);
+                    respond(exchange, response.getStatusCode(), response.getBody());
+                } finally {
+                    metrics.flush();
+                }
+            } finally {
+                inFlight.release();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Request failed: " + e);
+            respond(exchange, 500, "FAILURE");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, draining ? 503 : 200, draining ? "Shutting Down" : "OK");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /*
+     * headers flattens the request headers as API Gateway v2 does: lower case names, repeated values joined by commas
+     */
+    static Map<String, String> headers(HttpExchange exchange) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            headers.put(header.getKey().toLowerCase(Locale.ROOT), String.join(",", header.getValue()));
+        }
+        return headers;
+    }
+
+    /*
+     * readBody reads the request body as UTF-8
+     * @returns body, or null if it is longer than maxBytes
+     */
+    private static String readBody(HttpExchange exchange, int maxBytes) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (body.size() + read > maxBytes) {
+                    return null;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /*
+     * newRequestExecutor returns a virtual thread per request executor when the JVM has one (JDK 21+), looked up
+     * reflectively since the module is compiled for Java 8, and a cached thread pool otherwise
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads are not available, serving requests on platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import org.apache.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * SqsBatchEnqueuer sends messages to an SQS queue with SendMessageBatch on the async SQS client.
+ * Messages are grouped into batches of up to 10 entries or 256 KB, all batches are sent concurrently,
+ * and entries that fail for a retryable reason are resent individually in the next attempt.
+ *
+ * Single entries from concurrent callers, e.g. the requests of a SparkValidatorServer, can be coalesced with
+ * enqueueEntry: the first caller waits up to the linger time for others to join its batch, and a batch is sent as
+ * soon as it holds 10 entries or the next entry would take it past 256 KB. A Lambda container serves one request at
+ * a time, so nothing can join there and the linger is off by default.
+ */
+public class SqsBatchEnqueuer {
+    public static final int MAX_BATCH_ENTRIES = 10;
+    public static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+    private static Logger logger = Logger.getLogger(SqsBatchEnqueuer.class);
+
+    private final AmazonSQSAsync sqs;
+    private final String queueUrl;
+    private final int delaySeconds;
+    private final int maxAttempts;
+    private final long lingerMillis;
+    // The batch enqueueEntry callers are currently joining, or null when none is open
+    private final ReentrantLock lingerLock = new ReentrantLock();
+    private LingerBatch lingering;
+
+    /*
+     * @param sqs, the async SQS client
+     * @param queueUrl, the url of the queue messages are sent to
+     * @param delaySeconds, the delivery delay applied to every message
+     * @param maxAttempts, the number of times an entry is sent before it is reported as failed
+     */
+    public SqsBatchEnqueuer(AmazonSQSAsync sqs, String queueUrl, int delaySeconds, int maxAttempts) {
+        this(sqs, queueUrl, delaySeconds, maxAttempts, 0);
+    }
+
+    /*
+     * @param lingerMillis, how long enqueueEntry waits for concurrent callers to fill a batch; 0 sends each entry
+     * on its own
+     */
+    public SqsBatchEnqueuer(AmazonSQSAsync sqs, String queueUrl, int delaySeconds, int maxAttempts, long lingerMillis) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.delaySeconds = delaySeconds;
+        this.maxAttempts = maxAttempts;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /*
+     * enqueueEntry sends one prepared entry, sharing a SendMessageBatch call with entries from concurrent callers
+     * that arrive within the linger time
+     * @param entry, the entry to send
+     * @returns enqueued, a boolean value indicating whether the entry was accepted by SQS
+     */
+    public boolean enqueueEntry(SendMessageBatchRequestEntry entry) {
+        if (lingerMillis <= 0) {
+            return enqueueEntries(Collections.singletonList(entry)).isEmpty();
+        }
+
+        int entryBytes = entrySize(entry);
+        LingerBatch batch;
+        LingerBatch overflowed = null;
+        boolean leader = false;
+        boolean full = false;
+        lingerLock.lock();
+        try {
+            if (lingering != null && lingering.bytes + entryBytes > MAX_BATCH_BYTES) {
+                overflowed = lingering;
+                lingering = null;
+            }
+            if (lingering == null) {
+                lingering = new LingerBatch();
+                leader = true;
+            }
+            batch = lingering;
+            batch.entries.add(entry);
+            batch.bytes += entryBytes;
+            if (batch.entries.size() == MAX_BATCH_ENTRIES) {
+                lingering = null;
+                full = true;
+            }
+        } finally {
+            lingerLock.unlock();
+        }
+
+        // Whoever closes a batch sends it; the first caller of a batch nobody filled sends it when the linger ends
+        if (overflowed != null) {
+            send(overflowed);
+        }
+        if (full) {
+            send(batch);
+        } else if (leader) {
+            batch.await(lingerMillis);
+            boolean expired = false;
+            lingerLock.lock();
+            try {
+                if (lingering == batch) {
+                    lingering = null;
+                    expired = true;
+                }
+            } finally {
+                lingerLock.unlock();
+            }
+            if (expired) {
+                send(batch);
+            }
+        }
+
+        List<SendMessageBatchRequestEntry> failed = batch.failed.join();
+        InvocationMetrics.current().put("EnqueueBatchSize", batch.entries.size(), InvocationMetrics.COUNT);
+        for (SendMessageBatchRequestEntry failedEntry : failed) {
+            if (failedEntry == entry) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * shutdown releases the connections of the SQS client; the enqueuer cannot be used afterwards
+     */
+    public void shutdown() {
+        sqs.shutdown();
+    }
+
+    private void send(LingerBatch batch) {
+        batch.closed.countDown();
+        try {
+            batch.failed.complete(enqueueEntries(batch.entries));
+        } catch (RuntimeException e) {
+            logger.error("Failed to enqueue batch: " + e.getMessage());
+            batch.failed.complete(batch.entries);
+        }
+    }
+
+    /*
+     * enqueue sends the message bodies to the queue
+     * @param bodies, the message bodies to send
+     * @returns failed, the bodies that could not be enqueued
+     */
+    public List<String> enqueue(List<String> bodies) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(bodies.size());
+        for (String body : bodies) {
+            entries.add(new SendMessageBatchRequestEntry().withMessageBody(body));
+        }
+
+        List<String> failed = new ArrayList<>();
+        for (SendMessageBatchRequestEntry entry : enqueueEntries(entries)) {
+            failed.add(entry.getMessageBody());
+        }
+        return failed;
+    }
+
+    /*
+     * enqueueEntries sends prepared entries, with their message attributes, to the queue
+     * Entry ids and the delivery delay are assigned to copies, so the caller's entries are left unchanged
+     * @param entries, the entries to send
+     * @returns failed, the entries that could not be enqueued, as passed in by the caller
+     */
+    public List<SendMessageBatchRequestEntry> enqueueEntries(List<SendMessageBatchRequestEntry> entries) {
+        // The batch-local id of each copy is the index of the caller's entry
+        Map<String, SendMessageBatchRequestEntry> pending = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            SendMessageBatchRequestEntry entry = entries.get(i).clone()
+                    .withId(Integer.toString(i))
+                    .withDelaySeconds(delaySeconds);
+            pending.put(entry.getId(), entry);
+        }
+
+        List<SendMessageBatchRequestEntry> failed = new ArrayList<>();
+        for (int attempt = 1; attempt <= maxAttempts && !pending.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                backoff(attempt);
+                // An interrupted caller stops retrying; what is still pending is reported as failed
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
+            pending = sendBatches(new ArrayList<>(pending.values()), failed);
+        }
+
+        if (!pending.isEmpty()) {
+            logger.error(pending.size() + " message(s) could not be enqueued after " + maxAttempts + " attempts");
+            failed.addAll(pending.values());
+        }
+
+        List<SendMessageBatchRequestEntry> failedEntries = new ArrayList<>(failed.size());
+        for (SendMessageBatchRequestEntry entry : failed) {
+            failedEntries.add(entries.get(Integer.parseInt(entry.getId())));
+        }
+        return failedEntries;
+    }
+
+    /*
+     * sendBatches sends all entries as concurrent SendMessageBatch calls and waits for the results
+     * @param entries, the entries to send
+     * @param failed, collects entries that failed because of the sender, or were interrupted, and are not worth retrying
+     * @returns retry, the entries that failed for a retryable reason, keyed by entry id
+     */
+    private Map<String, SendMessageBatchRequestEntry> sendBatches(List<SendMessageBatchRequestEntry> entries,
+                                                                  List<SendMessageBatchRequestEntry> failed) {
+        List<List<SendMessageBatchRequestEntry>> batches = partition(entries);
+        List<Future<SendMessageBatchResult>> futures = new ArrayList<>(batches.size());
+        for (List<SendMessageBatchRequestEntry> batch : batches) {
+            futures.add(sqs.sendMessageBatchAsync(new SendMessageBatchRequest()
+                    .withQueueUrl(queueUrl)
+                    .withEntries(batch)));
+        }
+
+        Map<String, SendMessageBatchRequestEntry> retry = new LinkedHashMap<>();
+        for (int i = 0; i < batches.size(); i++) {
+            List<SendMessageBatchRequestEntry> batch = batches.get(i);
+            try {
+                SendMessageBatchResult result = futures.get(i).get();
+                for (BatchResultErrorEntry error : result.getFailed()) {
+                    SendMessageBatchRequestEntry entry = findEntry(batch, error.getId());
+                    logger.error("Failed to enqueue message " + error.getId() + ": " + error.getCode() + " " + error.getMessage());
+                    if (Boolean.TRUE.equals(error.getSenderFault())) {
+                        failed.add(entry);
+                    } else {
+                        retry.put(entry.getId(), entry);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // SQS may already have accepted the batch, so it is not sent again
+                Thread.currentThread().interrupt();
+                logger.error("Interrupted while enqueueing a batch of " + batch.size() + " message(s)");
+                failed.addAll(batch);
+            } catch (ExecutionException e) {
+                // The whole batch call failed (throttling, network), so every entry in it is retried
+                logger.error(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                addAll(retry, batch);
+            }
+        }
+        return retry;
+    }
+
+    /*
+     * partition groups entries into batches of at most MAX_BATCH_ENTRIES entries and MAX_BATCH_BYTES bytes
+     * @param entries, the entries to group
+     * @returns batches, the entries grouped in their original order
+     */
+    static List<List<SendMessageBatchRequestEntry>> partition(List<SendMessageBatchRequestEntry> entries) {
+        List<List<SendMessageBatchRequestEntry>> batches = new ArrayList<>();
+        List<SendMessageBatchRequestEntry> batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+        int batchBytes = 0;
+        for (SendMessageBatchRequestEntry entry : entries) {
+            int entryBytes = entrySize(entry);
+            if (!batch.isEmpty() && (batch.size() == MAX_BATCH_ENTRIES || batchBytes + entryBytes > MAX_BATCH_BYTES)) {
+                batches.add(batch);
+                batch = new ArrayList<>(MAX_BATCH_ENTRIES);
+                batchBytes = 0;
+            }
+            batch.add(entry);
+            batchBytes += entryBytes;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /*
+     * entrySize returns the size SQS counts against the payload limit: the body plus each attribute's name, type and value
+     */
+    public static int entrySize(SendMessageBatchRequestEntry entry) {
+        int size = utf8Length(entry.getMessageBody());
+        Map<String, MessageAttributeValue> attributes = entry.getMessageAttributes();
+        if (attributes != null) {
+            for (Map.Entry<String, MessageAttributeValue> attribute : attributes.entrySet()) {
+                MessageAttributeValue value = attribute.getValue();
+                size += utf8Length(attribute.getKey()) + utf8Length(value.getDataType()) + utf8Length(value.getStringValue());
+                if (value.getBinaryValue() != null) {
+                    size += value.getBinaryValue().remaining();
+                }
+            }
+        }
+        return size;
+    }
+
+    static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        // Fast path for the common ASCII payload; only encode when multi-byte characters are present
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return value.length();
+    }
+
+    private static SendMessageBatchRequestEntry findEntry(List<SendMessageBatchRequestEntry> batch, String id) {
+        for (SendMessageBatchRequestEntry entry : batch) {
+            if (entry.getId().equals(id)) {
+                return entry;
+            }
+        }
+        throw new IllegalStateException("SQS reported a failure for unknown entry " + id);
+    }
+
+    private static void addAll(Map<String, SendMessageBatchRequestEntry> retry, List<SendMessageBatchRequestEntry> batch) {
+        for (SendMessageBatchRequestEntry entry : batch) {
+            retry.put(entry.getId(), entry);
+        }
+    }
+
+    /*
+     * LingerBatch is a batch being filled by concurrent enqueueEntry callers; every caller waits on failed
+     */
+    private static final class LingerBatch {
+        private final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH_ENTRIES);
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final CompletableFuture<List<SendMessageBatchRequestEntry>> failed = new CompletableFuture<>();
+        private int bytes;
+
+        /*
+         * await waits until the batch is closed by another caller or the linger time has passed
+         */
+        private void await(long lingerMillis) {
+            try {
+                closed.await(lingerMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * SqsMessageHandler processes the Spark messages enqueued by LambdaHandler, replacing vsdkSparkSampleProcessMessage.
+ * Every record of the SQS batch is processed, up to SQS_CONSUMER_PARALLELISM at a time, and only the records that
+ * failed are reported back, so SQS retries just those.
+ * The event source mapping must have ReportBatchItemFailures enabled; without it a failed record is treated as success.
+ * A message already processed, e.g. a second SQS delivery or a Spark redelivery enqueued again, is acknowledged
+ * without calling Vault; one another delivery is still processing is reported as failed, so SQS retries it later.
+ * Messages without a sessionId share the integration user session; when Vault rejects it, the session is refreshed and
+ * the message processed once more.
+ */
+public class SqsMessageHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+    private static Logger logger = Logger.getLogger(SqsMessageHandler.class);
+
+    private static final int PARALLELISM = LambdaHandler.getIntEnv("SQS_CONSUMER_PARALLELISM", 8);
+    private static final int VQL_PAGE_SIZE = LambdaHandler.getIntEnv("VAULT_VQL_PAGE_LIMIT", 200);
+    private static final int VQL_CHUNK_SIZE = LambdaHandler.getIntEnv("VAULT_VQL_CHUNK_SIZE", 100);
+    private static final int VAULT_CALL_PARALLELISM = LambdaHandler.getIntEnv("VAULT_CALL_PARALLELISM", 8);
+    private static final String VAULT_USER = System.getenv("VAULT_USER");
+    private static final String VAULT_PASSWORD = System.getenv("VAULT_PASSWORD");
+    private static final String VAULT_HOSTNAME = System.getenv("VAULT_HOSTNAME");
+    private static final String CLIENT_ID = System.getenv("CLIENT_ID");
+
+    // Integration user session, used when a message does not carry a sessionId
+    private static final VaultSessionManager vaultSessionManager = new VaultSessionManager(
+            () -> VaultSessionManager.login(LambdaHandler.client.get(), LambdaHandler.objectMapper.get(),
+                    VAULT_USER, VAULT_PASSWORD, VAULT_HOSTNAME),
+            LambdaHandler.getIntEnv("VAULT_SESSION_IDLE_TIMEOUT_SECONDS", 600),
+            TimeUnit.SECONDS);
+    // Daemon workers kept across invocations; the batch is bounded by the pool size
+    private static final Lazy<ExecutorService> workers = Lazy.of(() -> newDaemonPool(PARALLELISM, "sqs-message-worker"));
+    // Runs the Vault queries and updates of all messages, bounding the Vault calls in flight
+    private static final Lazy<ExecutorService> vaultCalls = Lazy.of(() -> newDaemonPool(VAULT_CALL_PARALLELISM, "vault-call"));
+
+    private final Lazy<LoanQuoteProcessor> processor;
+    private final Lazy<IdempotencyStore> idempotencyStore;
+    // Reads back compressed and claim-checked message bodies
+    private final Lazy<SparkPayloadTransport> payloadTransport;
+    private final VaultSessionManager sessionManager;
+
+    public SqsMessageHandler() {
+        this.processor = Lazy.of(() -> new LoanQuoteProcessor(
+                new VaultRestClient(LambdaHandler.client.get(), LambdaHandler.objectMapper.get(), VAULT_HOSTNAME, CLIENT_ID),
+                VQL_PAGE_SIZE,
+                VQL_CHUNK_SIZE,
+                vaultCalls.get()));
+        this.idempotencyStore = Lazy.of(IdempotencyStore::fromEnvironment);
+        this.payloadTransport = Lazy.of(() -> SparkPayloadTransport.fromEnvironment(Lazy.of(AmazonS3ClientBuilder::defaultClient)));
+        this.sessionManager = vaultSessionManager;
+    }
+
+    public SqsMessageHandler(LoanQuoteProcessor processor) {
+        this(processor, null);
+    }
+
+    /*
+     * @param processor, generates and saves the quotes of a message
+     * @param idempotencyStore, the store used to skip messages already processed, or null to process every delivery
+     */
+    public SqsMessageHandler(LoanQuoteProcessor processor, IdempotencyStore idempotencyStore) {
+        this(processor, idempotencyStore, SparkPayloadTransport.fromEnvironment(Lazy.of(AmazonS3ClientBuilder::defaultClient)));
+    }
+
+    /*
+     * @param payloadTransport, reads back compressed and claim-checked message bodies
+     */
+    public SqsMessageHandler(LoanQuoteProcessor processor, IdempotencyStore idempotencyStore,
+                             SparkPayloadTransport payloadTransport) {
+        this(processor, idempotencyStore, payloadTransport, vaultSessionManager);
+    }
+
+    /*
+     * @param sessionManager, the session used for messages that do not carry a sessionId
+     */
+    SqsMessageHandler(LoanQuoteProcessor processor, IdempotencyStore idempotencyStore,
+                      SparkPayloadTransport payloadTransport, VaultSessionManager sessionManager) {
+        this.processor = Lazy.value(processor);
+        this.idempotencyStore = Lazy.value(idempotencyStore);
+        this.payloadTransport = Lazy.value(payloadTransport);
+        this.sessionManager = sessionManager;
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        InvocationMetrics metrics = InvocationMetrics.begin();
+        try {
+            List<SQSEvent.SQSMessage> records = event.getRecords();
+            List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+            metrics.put("BatchSize", records.size(), InvocationMetrics.COUNT);
+
+            // A single record is processed on the invoking thread
+            if (records.size() == 1) {
+                if (!processMessage(records.get(0))) {
+                    failures.add(new SQSBatchResponse.BatchItemFailure(records.get(0).getMessageId()));
+                }
+            } else {
+                List<Future<Boolean>> results = new ArrayList<>(records.size());
+                for (SQSEvent.SQSMessage record : records) {
+                    results.add(workers.get().submit(() -> {
+                        metrics.bind();
+                        try {
+                            return processMessage(record);
+                        } finally {
+                            metrics.unbind();
+                        }
+                    }));
+                }
+                for (int i = 0; i < records.size(); i++) {
+                    if (!succeeded(results.get(i))) {
+                        failures.add(new SQSBatchResponse.BatchItemFailure(records.get(i).getMessageId()));
+                    }
+                }
+            }
+
+            metrics.put("FailedMessages", failures.size(), InvocationMetrics.COUNT);
+            metrics.put("ProcessedMessages", records.size() - failures.size(), InvocationMetrics.COUNT);
+            return new SQSBatchResponse(failures);
+        } finally {
+            metrics.flush();
+        }
+    }
+
+    /*
+     * processMessage reads the Spark message in an SQS record and generates the quotes of its items
+     * @param record, the SQS record
+     * @returns processed, false if the message is unreadable or any Vault call failed; true for a duplicate
+     */
+    public boolean processMessage(SQSEvent.SQSMessage record) {
+        logger.info("messageId: " + record.getMessageId());
+        long start = System.nanoTime();
+        SQSEvent.MessageAttribute encoding = record.getMessageAttributes() != null
+                ? record.getMessageAttributes().get(SparkPayloadTransport.CONTENT_ENCODING)
+                : null;
+        String contentEncoding = encoding != null ? encoding.getStringValue() : null;
+        String body = payloadTransport.get().decode(record.getBody(), contentEncoding);
+        if (body == null) {
+            return false;
+        }
+        if (body.isEmpty()) {
+            // Counted as ClaimCheckMissing, not as a duplicate: the body may have been lost before it was processed
+            logger.error("Acknowledging message " + record.getMessageId() + " without its claim-checked body");
+            return true;
+        }
+        JsonNode root;
+        try {
+            root = LambdaHandler.objectMapper.get().readTree(body);
+        } catch (IOException e) {
+            logger.error("Unreadable message " + record.getMessageId() + ": " + e.getMessage());
+            return false;
+        }
+        JsonNode message = root.path("message");
+
+        // Keys live in their own namespace, so the validator's "enqueued" entry does not mark the message processed
+        IdempotencyStore store = idempotencyStore.get();
+        String idempotencyKey = null;
+        if (store != null) {
+            idempotencyKey = "process/" + IdempotencyStore.key(root.path("message_id").textValue(), body);
+            if (!store.begin(idempotencyKey)) {
+                // An SQS redelivery shares the claim-checked body of an attempt that may still be running or fail,
+                // so the body is only discarded, and the message acknowledged, once the key is completed
+                if (!IdempotencyStore.COMPLETED.equals(store.status(idempotencyKey))) {
+                    logger.info("Message " + record.getMessageId() + " is being processed by another delivery");
+                    InvocationMetrics.current().count("InFlightMessages");
+                    return false;
+                }
+                logger.info("Duplicate message " + record.getMessageId());
+                InvocationMetrics.current().count("DuplicateMessages");
+                payloadTransport.get().discard(record.getBody(), contentEncoding);
+                return true;
+            }
+        }
+
+        JsonNode attributes = message.path("attributes");
+        String objectName = attributes.path("object").asText("vsdk_loan_approval__c");
+        String vaultEvent = attributes.path("event").asText();
+        // Enriched items carry the record fields as a JSON object; plain items are record ids, queried from Vault
+        List<String> ids = new ArrayList<>(message.path("items").size());
+        ArrayNode rows = JsonNodeFactory.instance.arrayNode();
+        for (JsonNode item : message.path("items")) {
+            String text = item.asText();
+            if (!text.startsWith("{")) {
+                ids.add(text);
+                continue;
+            }
+            try {
+                rows.add(LambdaHandler.objectMapper.get().readTree(text));
+            } catch (IOException e) {
+                logger.error("Skipping unreadable item in message " + record.getMessageId() + ": " + e.getMessage());
+            }
+        }
+        InvocationMetrics.current().add("InlineItems", rows.size(), InvocationMetrics.COUNT);
+        InvocationMetrics.current().add("QueriedItems", ids.size(), InvocationMetrics.COUNT);
+
+        boolean processed = process(record.getMessageId(), objectName, ids, rows, vaultEvent,
+                attributes.path("sessionId").asText(""));
+        if (store != null) {
+            if (processed) {
+                store.complete(idempotencyKey);
+            } else {
+                store.release(idempotencyKey);
+            }
+        }
+        if (processed) {
+            payloadTransport.get().discard(record.getBody(), contentEncoding);
+        }
+        InvocationMetrics.current().time("MessageProcessingTime", start);
+        return processed;
+    }
+
+    /*
+     * process generates and saves the quotes with the session sent in the message, or else with the integration user
+     * session, obtained from username/password. If Vault rejects the integration user session, the session is
+     * refreshed and the message processed once more
+     * @param messageSessionId, the sessionId of the Spark message, or an empty string if it has none
+     * @returns processed, true if every page was queried and updated
+     */
+    private boolean process(String messageId, String objectName, List<String> ids, ArrayNode rows, String vaultEvent,
+                            String messageSessionId) {
+        if (!messageSessionId.isEmpty()) {
+            try {
+                return processor.get().process(objectName, ids, rows, vaultEvent, messageSessionId);
+            } catch (InvalidVaultSessionException e) {
+                logger.error("Vault rejected the session of message " + messageId + ": " + e.getMessage());
+                return false;
+            }
+        }
+        for (int attempt = 0; attempt < 2; attempt++) {
+            String sessionId = sessionManager.getSessionId();
+            if (sessionId == null) {
+                logger.error("No Vault session for message " + messageId);
+                return false;
+            }
+            try {
+                return processor.get().process(objectName, ids, rows, vaultEvent, sessionId);
+            } catch (InvalidVaultSessionException e) {
+                logger.error("Vault rejected the session for message " + messageId + ": " + e.getMessage());
+                sessionManager.invalidate(sessionId);
+            }
+        }
+        return false;
+    }
+
+    private static ExecutorService newDaemonPool(int size, String name) {
+        return Executors.newFixedThreadPool(size, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static boolean succeeded(Future<Boolean> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error(e.getMessage());
+        } catch (ExecutionException e) {
+            logger.error("Message processing failed: " + e.getCause());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,259 @@
+package com.veeva.vault;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * VaultRateGovernor is an OkHttp interceptor that keeps outbound Vault calls within the Vault API burst limit.
+ * It is a token bucket whose level is set from the X-VaultAPI-BurstLimitRemaining and X-VaultAPI-DailyLimitRemaining
+ * headers of every response, less a cutoff kept in reserve, and which refills at the burst limit per burst window.
+ * While budget is left calls pass straight through; once it runs low they are spaced at the refill rate, so a busy
+ * client settles at the sustainable rate instead of tripping the limit. The start of a burst window is detected when the
+ * reported budget jumps back up; once the budget is spent, calls are held until the expected end of the window.
+ * A call that would have to wait longer than maxWait is not sent: it is answered with a local 429 carrying
+ * API_LIMIT_EXCEEDED and a Retry-After, as Vault would answer it, and counted as VaultThrottledCalls.
+ * Calls rejected with 429 or API_LIMIT_EXCEEDED are retried after a jittered exponential backoff, or after the
+ * Retry-After Vault sends, capped at 8 seconds.
+ */
+public class VaultRateGovernor implements Interceptor {
+    static final String BURST_LIMIT_HEADER = "X-VaultAPI-BurstLimit";
+    static final String BURST_LIMIT_REMAINING_HEADER = "X-VaultAPI-BurstLimitRemaining";
+    static final String DAILY_LIMIT_REMAINING_HEADER = "X-VaultAPI-DailyLimitRemaining";
+    private static final String LIMIT_ERROR = "API_LIMIT_EXCEEDED";
+    private static final long BACKOFF_BASE_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 8000;
+    private static final long LIMIT_ERROR_PEEK_BYTES = 4096;
+    static final String THROTTLED_MESSAGE = "Throttled by VaultRateGovernor";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static Logger logger = Logger.getLogger(VaultRateGovernor.class);
+
+    private final int cutoff;
+    private final long windowNanos;
+    private final long maxWaitNanos;
+    private final int maxRetries;
+
+    // Bucket state; capacity stays 0 (no throttling) until the first response reports the limits
+    private double capacity;
+    private double tokens;
+    private double refillPerNano;
+    private long lastRefill;
+    private long windowEnd;
+    private boolean exhausted;
+    private int burstLimitRemaining = -1;
+    private int dailyLimitRemaining = -1;
+
+    /*
+     * @param cutoff, the number of calls of the burst and daily limits kept in reserve
+     * @param window, the length of the Vault burst limit window
+     * @param maxWait, the longest a call waits for budget; a call that would wait longer fails as throttled
+     * @param unit, the unit of window and maxWait
+     * @param maxRetries, the number of times a call rejected by the limit is retried
+     */
+    public VaultRateGovernor(int cutoff, long window, long maxWait, TimeUnit unit, int maxRetries) {
+        this.cutoff = cutoff;
+        this.windowNanos = unit.toNanos(window);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            long throttledNanos = awaitBudget();
+            if (throttledNanos > 0) {
+                InvocationMetrics.current().count("VaultThrottledCalls");
+                logger.error("Vault API budget spent; failing the call rather than waiting "
+                        + TimeUnit.NANOSECONDS.toMillis(throttledNanos) + " ms");
+                return throttled(chain, throttledNanos);
+            }
+            Response response = chain.proceed(chain.request());
+            update(response);
+            if (!isLimitError(response)) {
+                return response;
+            }
+
+            drain();
+            InvocationMetrics.current().count("VaultLimitErrors");
+            if (attempt >= maxRetries) {
+                logger.error("Vault API limit reached; giving up after " + (attempt + 1) + " attempt(s)");
+                return response;
+            }
+            long backoff = backoffMillis(attempt, response.header("Retry-After"));
+            response.close();
+            logger.info("Vault API limit reached; retrying in " + backoff + " ms");
+            sleep(TimeUnit.MILLISECONDS.toNanos(backoff));
+        }
+    }
+
+    /*
+     * awaitBudget takes a token, waiting for the bucket to refill when it is empty
+     * Tokens are taken on account, so concurrent callers queue behind each other at the refill rate
+     * @returns waitNanos, 0 once the call may be sent, or how long it would have had to wait when that is longer than
+     * maxWait; the token is then handed back
+     */
+    private long awaitBudget() {
+        long waitNanos;
+        synchronized (this) {
+            if (capacity <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            refill(now);
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / refillPerNano);
+            if (exhausted && windowEnd - now > waitNanos) {
+                waitNanos = windowEnd - now;
+            }
+            if (waitNanos > maxWaitNanos) {
+                tokens += 1;
+                return waitNanos;
+            }
+        }
+        if (waitNanos > 0) {
+            long start = System.nanoTime();
+            sleep(waitNanos);
+            InvocationMetrics.current().time("VaultThrottleTime", start);
+        }
+        return 0;
+    }
+
+    /*
+     * throttled builds the answer to a call the governor did not send: a 429 with a Vault API_LIMIT_EXCEEDED error
+     * and a Retry-After of the wait for budget, in seconds rounded up
+     */
+    private static Response throttled(Chain chain, long waitNanos) {
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(429)
+                .message(THROTTLED_MESSAGE)
+                .header("Retry-After", Long.toString(retryAfterSeconds))
+                .body(ResponseBody.create("{\"responseStatus\":\"FAILURE\",\"errors\":[{\"type\":\"" + LIMIT_ERROR
+                        + "\",\"message\":\"" + THROTTLED_MESSAGE + "\"}]}", JSON))
+                .build();
+    }
+
+    /*
+     * update sets the capacity and refill rate from the limit headers of a response and lowers the bucket to the
+     * budget Vault reports
+     */
+    synchronized void update(Response response) {
+        int burstRemaining = intHeader(response, BURST_LIMIT_REMAINING_HEADER);
+        int dailyRemaining = intHeader(response, DAILY_LIMIT_REMAINING_HEADER);
+        if (burstRemaining < 0) {
+            return;
+        }
+        int burstLimit = intHeader(response, BURST_LIMIT_HEADER);
+        long now = System.nanoTime();
+        // A budget well above the last one reported means Vault started a new burst window
+        boolean newWindow = capacity <= 0 || burstRemaining > burstLimitRemaining + cutoff;
+        refill(now);
+        capacity = Math.max(capacity, Math.max(1, Math.max(burstLimit, burstRemaining) - cutoff));
+        refillPerNano = capacity / windowNanos;
+        int available = (dailyRemaining >= 0 ? Math.min(burstRemaining, dailyRemaining) : burstRemaining) - cutoff;
+        if (newWindow) {
+            windowEnd = now + windowNanos;
+            tokens = Math.min(available, capacity);
+        } else {
+            // Within a window the reported budget can only lower the bucket: calls in flight are not counted in it yet
+            tokens = Math.min(tokens, available);
+        }
+        exhausted = available <= 0;
+        burstLimitRemaining = burstRemaining;
+        dailyLimitRemaining = dailyRemaining;
+
+        InvocationMetrics metrics = InvocationMetrics.current();
+        metrics.put("VaultBurstLimitRemaining", burstRemaining, InvocationMetrics.COUNT);
+        if (dailyRemaining >= 0) {
+            metrics.put("VaultDailyLimitRemaining", dailyRemaining, InvocationMetrics.COUNT);
+        }
+    }
+
+    private void refill(long now) {
+        if (capacity <= 0) {
+            lastRefill = now;
+            return;
+        }
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+
+    private synchronized void drain() {
+        tokens = Math.min(tokens, 0);
+        exhausted = true;
+    }
+
+    /*
+     * isLimitError checks for a 429, or a Vault error response reporting API_LIMIT_EXCEEDED once the burst budget is spent
+     */
+    private boolean isLimitError(Response response) throws IOException {
+        if (response.code() == 429) {
+            return true;
+        }
+        int burstRemaining = intHeader(response, BURST_LIMIT_REMAINING_HEADER);
+        int dailyRemaining = intHeader(response, DAILY_LIMIT_REMAINING_HEADER);
+        if (burstRemaining != 0 && dailyRemaining != 0) {
+            return false;
+        }
+        return response.peekBody(LIMIT_ERROR_PEEK_BYTES).string().contains(LIMIT_ERROR);
+    }
+
+    /*
+     * backoffMillis honours Retry-After up to MAX_BACKOFF_MILLIS, otherwise waits between half and all of an
+     * exponentially growing delay
+     */
+    static long backoffMillis(int attempt, String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                long retryAfterSeconds = Math.max(0, Long.parseLong(retryAfter.trim()));
+                return Math.min(MAX_BACKOFF_MILLIS, TimeUnit.SECONDS.toMillis(retryAfterSeconds));
+            } catch (NumberFormatException e) {
+                // An HTTP date; fall back to the computed delay
+            }
+        }
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static int intHeader(Response response, String name) {
+        String value = response.header(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getBurstLimitRemaining() {
+        return burstLimitRemaining;
+    }
+
+    public synchronized int getDailyLimitRemaining() {
+        return dailyLimitRemaining;
+    }
+
+    public synchronized double getAvailableTokens() {
+        refill(System.nanoTime());
+        return tokens;
+    }
+}
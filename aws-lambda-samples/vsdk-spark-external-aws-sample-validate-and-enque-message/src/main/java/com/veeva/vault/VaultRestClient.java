@@ -0,0 +1,128 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+
+/*
+ * VaultRestClient makes the Vault REST API calls of the message processor: VQL queries, query pages and bulk updates.
+ * Each call returns the parsed response when Vault reports SUCCESS, or null after logging the error.
+ * A session Vault rejects with INVALID_SESSION_ID is reported with an InvalidVaultSessionException instead.
+ */
+public class VaultRestClient {
+    private static final String API_PATH = "/api/v21.1";
+    static final String INVALID_SESSION_ID = "INVALID_SESSION_ID";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static Logger logger = Logger.getLogger(VaultRestClient.class);
+
+    private final OkHttpClient client;
+    private final ObjectMapper objectMapper;
+    private final String hostname;
+    private final String clientId;
+
+    /*
+     * @param client, the http client; its interceptors apply to every call
+     * @param objectMapper, the mapper used to read and write json
+     * @param hostname, the vault hostname, e.g. https://myvault.veevavault.com
+     * @param clientId, the client id sent with each call to identify the integration in the Vault logs, may be null
+     */
+    public VaultRestClient(OkHttpClient client, ObjectMapper objectMapper, String hostname, String clientId) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.hostname = hostname;
+        this.clientId = clientId;
+    }
+
+    /*
+     * query runs a VQL query and returns the first page
+     * @param sessionId, an active sessionId for the vault
+     * @param vql, the VQL statement
+     * @returns response, the query response with its data and responseDetails, or null if the query failed
+     */
+    public JsonNode query(String sessionId, String vql) {
+        Request request = newRequest(sessionId, API_PATH + "/query")
+                .post(new FormBody.Builder().add("q", vql).build())
+                .build();
+        return execute(request);
+    }
+
+    /*
+     * queryPage retrieves a further page of a query
+     * @param sessionId, an active sessionId for the vault
+     * @param nextPage, the next_page or previous_page path from the responseDetails of a query response
+     * @returns response, the query response for the page, or null if the call failed
+     */
+    public JsonNode queryPage(String sessionId, String nextPage) {
+        return execute(newRequest(sessionId, nextPage).get().build());
+    }
+
+    /*
+     * updateRecords updates object records in bulk; Vault accepts up to 500 records per call
+     * @param sessionId, an active sessionId for the vault
+     * @param objectName, the object of the records
+     * @param records, the records to update, each with its id and the fields to set
+     * @returns response, the update response with a result for each record, or null if the call failed
+     */
+    public JsonNode updateRecords(String sessionId, String objectName, ArrayNode records) {
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(records);
+        } catch (JsonProcessingException e) {
+            logger.error(e.getMessage());
+            return null;
+        }
+        Request request = newRequest(sessionId, API_PATH + "/vobjects/" + objectName)
+                .put(RequestBody.create(body, JSON))
+                .build();
+        JsonNode response = execute(request);
+        if (response != null) {
+            // The call succeeds as a whole even when single records are rejected
+            for (JsonNode result : response.path("data")) {
+                if (!"SUCCESS".equals(result.path("responseStatus").asText())) {
+                    logger.error("Record update failed: " + result.path("errors").path(0).path("message").asText());
+                }
+            }
+        }
+        return response;
+    }
+
+    private Request.Builder newRequest(String sessionId, String path) {
+        Request.Builder builder = new Request.Builder()
+                .url(hostname + path)
+                .addHeader("Authorization", sessionId)
+                .addHeader("Accept", "application/json");
+        if (clientId != null) {
+            builder.addHeader("X-VaultAPI-ClientID", clientId);
+        }
+        return builder;
+    }
+
+    private JsonNode execute(Request request) {
+        try (Response response = client.newCall(request).execute()) {
+            JsonNode json = objectMapper.readTree(response.body().byteStream());
+            if ("SUCCESS".equals(json.path("responseStatus").asText())) {
+                return json;
+            }
+            JsonNode error = json.path("errors").path(0);
+            String message = "ERROR calling " + request.method() + " " + request.url().encodedPath() + ": "
+                    + error.path("message").asText(response.message());
+            if (INVALID_SESSION_ID.equals(error.path("type").asText())) {
+                throw new InvalidVaultSessionException(message);
+            }
+            logger.error(message);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+        return null;
+    }
+}
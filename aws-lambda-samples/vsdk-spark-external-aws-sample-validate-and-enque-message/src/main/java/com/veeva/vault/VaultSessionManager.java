@@ -0,0 +1,113 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/*
+ * VaultSessionManager keeps one Vault session alive across invocations of a warm container.
+ * The session is reused until it has been idle for longer than the session timeout, or until a caller
+ * reports it as rejected by Vault, after which the next caller authenticates again.
+ * Authentication is serialized, so concurrent callers that find no usable session cause a single login. The lock is
+ * a ReentrantLock, since a virtual thread holding a monitor through the auth call would pin its carrier thread.
+ */
+public class VaultSessionManager {
+    private static final String API_AUTH_ENDPOINT = "/api/v21.1/auth";
+    private static Logger logger = Logger.getLogger(VaultSessionManager.class);
+
+    private final Supplier<String> authenticator;
+    private final long idleTimeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private String sessionId;
+    private long lastUsed;
+
+    /*
+     * @param authenticator, makes the Vault auth call and returns a new session id, or null if authentication failed
+     * @param idleTimeout, how long a session may stay unused before it is considered expired
+     * @param unit, the unit of idleTimeout
+     */
+    public VaultSessionManager(Supplier<String> authenticator, long idleTimeout, TimeUnit unit) {
+        this.authenticator = authenticator;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    }
+
+    /*
+     * getSessionId returns the current session id, authenticating first if there is no usable session
+     * @returns sessionId, an active sessionId for the vault or null if authentication failed
+     */
+    public String getSessionId() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (sessionId == null || now - lastUsed >= idleTimeoutNanos) {
+                logger.info("Authenticating new Vault session");
+                sessionId = authenticator.get();
+            }
+            lastUsed = now;
+            return sessionId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * invalidate discards the session if it is still the current one, so the next caller authenticates again
+     * @param rejectedSessionId, the session id that Vault rejected
+     */
+    public void invalidate(String rejectedSessionId) {
+        lock.lock();
+        try {
+            if (sessionId != null && sessionId.equals(rejectedSessionId)) {
+                logger.info("Invalidating Vault session");
+                sessionId = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * login makes a basic auth call to Vault HTTPS REST API and returns an active sessionId
+     * @param client, the http client used for the call
+     * @param objectMapper, the mapper used to read the response
+     * @param username, the username for the vault user
+     * @param password, the password for the vault user
+     * @param hostname, the vault hostname
+     * @returns sessionId, an active sessionId for the vault or null if authentication failed
+     */
+    static String login(OkHttpClient client, ObjectMapper objectMapper, String username, String password, String hostname) {
+        String url = new StringBuilder(hostname).append(API_AUTH_ENDPOINT).toString();
+
+        RequestBody requestBody = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("username", username)
+                .addFormDataPart("password", password)
+                .build();
+
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("Content-Type", "application/x-www-form-urlencoded")
+                .post(requestBody)
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            // If the API call is successful then get the session id from the json returned
+            if(response.isSuccessful()) {
+                ObjectNode responseJSON = objectMapper.readValue(response.body().string(), ObjectNode.class);
+                return responseJSON.get("sessionId").asText();
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+        }
+        return null;
+    }
+}
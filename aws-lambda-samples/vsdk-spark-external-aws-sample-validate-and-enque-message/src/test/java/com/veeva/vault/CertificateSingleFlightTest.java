@@ -0,0 +1,166 @@
+package com.veeva.vault;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/*
+ * Parallel requests that miss the public key cache for the same certificate id must share one Vault login,
+ * one certificate download and one S3 write; the Vault session is only replaced when Vault rejects it
+ */
+class CertificateSingleFlightTest {
+    private static final int THREADS = 16;
+
+    private final AtomicInteger authCalls = new AtomicInteger();
+    private final AtomicInteger certificateCalls = new AtomicInteger();
+    private MockWebServer vault;
+    private StubAmazonS3 s3;
+    private LambdaHandler handler;
+
+    @BeforeEach
+    void startVault() throws IOException {
+        String certificate = resource("signing-certificate.pem");
+        vault = new MockWebServer();
+        vault.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                // Slow responses keep every thread's miss in flight at the same time
+                if (request.getPath().startsWith("/api/v21.1/auth")) {
+                    return new MockResponse()
+                            .setBody("{\"responseStatus\":\"SUCCESS\",\"sessionId\":\"session-" + authCalls.incrementAndGet() + "\"}")
+                            .setHeadersDelay(200, TimeUnit.MILLISECONDS);
+                }
+                if (request.getPath().startsWith("/api/v21.1/services/certificate/")) {
+                    certificateCalls.incrementAndGet();
+                    if (request.getPath().contains("/unknown-")) {
+                        return new MockResponse().setResponseCode(404);
+                    }
+                    if (request.getPath().contains("/expired-") && "session-1".equals(request.getHeader("authorization"))) {
+                        return new MockResponse().setBody("{\"responseStatus\":\"FAILURE\",\"errors\":[{\"type\":"
+                                + "\"INVALID_SESSION_ID\",\"message\":\"Invalid or expired session ID.\"}]}");
+                    }
+                    return new MockResponse().setBody(certificate).setHeadersDelay(200, TimeUnit.MILLISECONDS);
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        vault.start();
+
+        String hostname = vault.url("").toString().replaceAll("/$", "");
+        s3 = new StubAmazonS3();
+        handler = new LambdaHandler(s3, null, null, null, hostname, new VaultSessionManager(
+                () -> VaultSessionManager.login(LambdaHandler.client.get(), LambdaHandler.objectMapper.get(),
+                        "user", "password", hostname),
+                10, TimeUnit.MINUTES));
+    }
+
+    @AfterEach
+    void stopVault() throws IOException {
+        vault.shutdown();
+    }
+
+    @Test
+    void parallelMissesShareOneAuthAndOneCertificateDownload() throws Exception {
+        String certificateId = "single-flight-" + System.nanoTime();
+        List<PublicKey> keys = lookUpInParallel(certificateId);
+
+        assertNotNull(keys.get(0));
+        for (PublicKey key : keys) {
+            assertSame(keys.get(0), key);
+        }
+        assertEquals(1, authCalls.get());
+        assertEquals(1, certificateCalls.get());
+        assertEquals(1, s3.puts.get());
+        assertEquals(1, s3.objects.size());
+    }
+
+    @Test
+    void parallelMissesForAStoredCertificateSkipVault() throws Exception {
+        String certificateId = "stored-" + System.nanoTime();
+        s3.putObject("bucket", "PublicKeys/" + certificateId + ".pem", resource("signing-certificate.pem"));
+
+        List<PublicKey> keys = lookUpInParallel(certificateId);
+
+        assertNotNull(keys.get(0));
+        assertEquals(0, authCalls.get());
+        assertEquals(0, certificateCalls.get());
+        assertEquals(1, s3.puts.get());
+    }
+
+    @Test
+    void anUnknownCertificateKeepsTheSession() {
+        assertNull(handler.lookupPublicKey("unknown-" + System.nanoTime(), InvocationMetrics.current()));
+        assertNull(handler.lookupPublicKey("unknown-" + System.nanoTime(), InvocationMetrics.current()));
+
+        // A bogus certificate id costs one certificate call each, never a new login or a retry
+        assertEquals(1, authCalls.get());
+        assertEquals(2, certificateCalls.get());
+        assertEquals(0, s3.puts.get());
+    }
+
+    @Test
+    void aRejectedSessionIsReplacedAndTheCallRetriedOnce() {
+        assertNotNull(handler.lookupPublicKey("expired-" + System.nanoTime(), InvocationMetrics.current()));
+
+        assertEquals(2, authCalls.get());
+        assertEquals(2, certificateCalls.get());
+        assertEquals(1, s3.puts.get());
+    }
+
+    private List<PublicKey> lookUpInParallel(String certificateId) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<PublicKey>> lookups = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return handler.lookupPublicKey(certificateId, InvocationMetrics.current());
+                }));
+            }
+            start.countDown();
+            List<PublicKey> keys = new ArrayList<>();
+            for (Future<PublicKey> lookup : lookups) {
+                keys.add(lookup.get(10, TimeUnit.SECONDS));
+            }
+            return keys;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static String resource(String name) throws IOException {
+        try (InputStream in = CertificateSingleFlightTest.class.getClassLoader().getResourceAsStream(name)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+            return new String(content.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
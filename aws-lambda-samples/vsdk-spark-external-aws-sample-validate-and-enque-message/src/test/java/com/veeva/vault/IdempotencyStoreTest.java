@@ -0,0 +1,182 @@
+package com.veeva.vault;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdempotencyStoreTest {
+    private final CountingBackend backend = new CountingBackend();
+
+    @Test
+    void keysCombineTheMessageIdAndTheBodyHash() {
+        String hash = IdempotencyStore.key(null, "{\"data\":[\"V5K000000000001\"]}");
+
+        assertEquals(64, hash.length());
+        assertTrue(hash.matches("[0-9a-f]{64}"), hash);
+        assertEquals("message-1:" + hash, IdempotencyStore.key("message-1", "{\"data\":[\"V5K000000000001\"]}"));
+        assertNotEquals(hash, IdempotencyStore.key(null, "{\"data\":[\"V5K000000000002\"]}"));
+        // SHA-256 of the UTF-8 bytes of "abc"
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", IdempotencyStore.key(null, "abc"));
+    }
+
+    @Test
+    void claimsAKeyOnce() {
+        IdempotencyStore store = new IdempotencyStore(backend, 100, 900, 86400);
+
+        assertTrue(store.begin("key"));
+        assertFalse(store.begin("key"));
+        assertEquals(1, store.getHits());
+    }
+
+    @Test
+    void dropsCompletedKeysFromMemoryWithoutCallingTheBackend() {
+        IdempotencyStore store = new IdempotencyStore(backend, 100, 900, 86400);
+        assertTrue(store.begin("key"));
+        store.complete("key");
+        int calls = backend.calls.get();
+
+        assertTrue(store.isCompleted("key"));
+        assertFalse(store.begin("key"));
+        assertEquals(calls, backend.calls.get());
+        assertEquals(2, store.getHits());
+    }
+
+    @Test
+    void sharesCompletedKeysThroughTheBackend() {
+        IdempotencyStore first = new IdempotencyStore(backend, 100, 900, 86400);
+        IdempotencyStore second = new IdempotencyStore(backend, 100, 900, 86400);
+        assertTrue(first.begin("key"));
+        first.complete("key");
+
+        assertFalse(second.isCompleted("key"));
+        assertFalse(second.begin("key"));
+        assertEquals(1, second.getHits());
+    }
+
+    @Test
+    void tellsACompletedKeyFromOneInProgress() {
+        IdempotencyStore first = new IdempotencyStore(backend, 100, 900, 86400);
+        IdempotencyStore second = new IdempotencyStore(backend, 100, 900, 86400);
+        assertNull(second.status("key"));
+
+        assertTrue(first.begin("key"));
+        assertEquals(IdempotencyStore.IN_PROGRESS, second.status("key"));
+
+        first.complete("key");
+        assertEquals(IdempotencyStore.COMPLETED, second.status("key"));
+        assertEquals(IdempotencyStore.COMPLETED, first.status("key"));
+
+        assertTrue(second.begin("other"));
+        second.release("other");
+        assertNull(first.status("other"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedKeyFromMemory() {
+        IdempotencyStore store = new IdempotencyStore(backend, 2, 900, 86400);
+        for (String key : new String[]{"a", "b"}) {
+            store.begin(key);
+            store.complete(key);
+        }
+        assertTrue(store.isCompleted("a"));
+
+        store.begin("c");
+        store.complete("c");
+
+        assertTrue(store.isCompleted("a"));
+        assertFalse(store.isCompleted("b"));
+        assertTrue(store.isCompleted("c"));
+        // The backend still remembers the evicted key
+        assertFalse(store.begin("b"));
+    }
+
+    @Test
+    void releasedKeysCanBeClaimedAgain() {
+        IdempotencyStore store = new IdempotencyStore(backend, 100, 900, 86400);
+        assertTrue(store.begin("key"));
+
+        store.release("key");
+
+        assertTrue(store.begin("key"));
+        assertEquals(0, store.getHits());
+    }
+
+    @Test
+    void expiredLeasesCanBeClaimedAgain() {
+        IdempotencyStore store = new IdempotencyStore(backend, 100, -1, 86400);
+        assertTrue(store.begin("key"));
+
+        assertTrue(store.begin("key"));
+    }
+
+    @Test
+    void expiredCompletedKeysAreProcessedAgain() {
+        IdempotencyStore store = new IdempotencyStore(backend, 100, 900, -1);
+        assertTrue(store.begin("key"));
+        store.complete("key");
+
+        assertFalse(store.isCompleted("key"));
+        assertTrue(store.begin("key"));
+    }
+
+    @Test
+    void processesMessagesWhenTheBackendFails() {
+        backend.failing = true;
+        IdempotencyStore store = new IdempotencyStore(backend, 100, 900, 86400);
+
+        assertTrue(store.begin("key"));
+        assertTrue(store.begin("key"));
+        store.complete("key");
+        store.release("key");
+
+        // The key completed in this container is still dropped from memory
+        assertFalse(store.begin("key"));
+        assertEquals(IdempotencyStore.COMPLETED, store.status("key"));
+        assertNull(store.status("other"));
+    }
+
+    /*
+     * CountingBackend is the in-memory backend with a count of its calls and a switch that makes every call fail
+     */
+    private static class CountingBackend extends InMemoryIdempotencyBackend {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean failing;
+
+        @Override
+        public boolean putIfAbsent(String key, String status, long expiresAt, long now) {
+            call();
+            return super.putIfAbsent(key, status, expiresAt, now);
+        }
+
+        @Override
+        public String getStatus(String key, long now) {
+            call();
+            return super.getStatus(key, now);
+        }
+
+        @Override
+        public void put(String key, String status, long expiresAt) {
+            call();
+            super.put(key, status, expiresAt);
+        }
+
+        @Override
+        public void delete(String key) {
+            call();
+            super.delete(key);
+        }
+
+        private void call() {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("backend unavailable");
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.veeva.vault;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyTest {
+
+    @Test
+    void createsTheValueOnce() {
+        AtomicInteger created = new AtomicInteger();
+        Lazy<Object> lazy = Lazy.of(() -> {
+            created.incrementAndGet();
+            return new Object();
+        });
+
+        assertFalse(lazy.isInitialized());
+        assertSame(lazy.get(), lazy.get());
+        assertTrue(lazy.isInitialized());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void keepsANullValue() {
+        AtomicInteger created = new AtomicInteger();
+        Lazy<Object> lazy = Lazy.of(() -> {
+            created.incrementAndGet();
+            return null;
+        });
+
+        assertNull(lazy.get());
+        assertNull(lazy.get());
+        assertTrue(lazy.isInitialized());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    void resetReturnsTheValueAndCreatesANewOne() {
+        Lazy<Object> lazy = Lazy.of(Object::new);
+        assertNull(lazy.reset());
+
+        Object first = lazy.get();
+        assertSame(first, lazy.reset());
+        assertFalse(lazy.isInitialized());
+        Object second = lazy.get();
+
+        assertTrue(first != second);
+    }
+
+    @Test
+    void neverResetsAValuePassedIn() {
+        Object value = new Object();
+        Lazy<Object> lazy = Lazy.value(value);
+
+        assertTrue(lazy.isInitialized());
+        assertNull(lazy.reset());
+        assertSame(value, lazy.get());
+    }
+}
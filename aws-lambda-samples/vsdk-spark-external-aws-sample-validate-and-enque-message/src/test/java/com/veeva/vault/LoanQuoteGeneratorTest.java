@@ -0,0 +1,81 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * The quotes must match those of generateLoanApprovalQuotes in vsdkSparkSampleProcessMessage/lambda_function.py.
+ * loan-quote-golden.json holds that function's output for rows covering the rounding to hundreds, whole and part
+ * years, fractional amounts, the approval limit, quote counts and reference numbers;
+ * src/test/python/generate_loan_quote_golden.py regenerates it.
+ */
+class LoanQuoteGeneratorTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void matchesThePythonQuotes() throws IOException {
+        JsonNode golden = objectMapper.readTree(CertificateSingleFlightTest.resource("loan-quote-golden.json"));
+        LocalDateTime now = LocalDateTime.parse(golden.path("now").asText());
+
+        Iterator<Map.Entry<String, JsonNode>> events = golden.path("quotes").fields();
+        while (events.hasNext()) {
+            Map.Entry<String, JsonNode> event = events.next();
+            ArrayNode quotes = LoanQuoteGenerator.generate(golden.path("rows"), event.getKey(), now);
+
+            assertEquals(event.getValue().size(), quotes.size(), event.getKey());
+            for (int i = 0; i < quotes.size(); i++) {
+                // Compared as text, since the Python integers read back as ints and the Java quotes hold longs
+                assertEquals(event.getValue().get(i).toString(), quotes.get(i).toString(), event.getKey());
+            }
+        }
+    }
+
+    @Test
+    void stepsWholeYearsOnly() {
+        double[] amounts = {12345, 12345, 12345, 12345.67};
+        int[] periodMonths = {11, 12, 23, 24};
+        long[] monthly = new long[4];
+        long[] total = new long[4];
+
+        LoanQuoteGenerator.repayments(amounts, periodMonths, 4, 15, monthly, total);
+
+        assertEquals(12342, total[0]);
+        assertEquals(14136, total[1]);
+        assertEquals(14145, total[2]);
+        // Floored to hundreds each year: 12345.67 -> 14145 -> 16215, not 12345.67 * 1.15^2
+        assertEquals(16200, total[3]);
+        assertEquals(675, monthly[3]);
+    }
+
+    @Test
+    void skipsRowsThatCannotBeQuoted() throws IOException {
+        JsonNode rows = objectMapper.readTree("[{\"id\":\"V5K1\",\"name__v\":\"\",\"loan_amount__c\":1000,"
+                + "\"loan_period_months__c\":[\"12_months__c\"]},{\"id\":\"V5K2\",\"name__v\":\"Ann\","
+                + "\"loan_period_months__c\":[\"12_months__c\"]},{\"id\":\"V5K3\",\"name__v\":\"Ann\","
+                + "\"loan_amount__c\":1000,\"loan_period_months__c\":[\"xx_months__c\"]},{\"id\":\"V5K4\",\"name__v\":\"Ann\","
+                + "\"loan_amount__c\":1000,\"loan_period_months__c\":[\"12_months__c\"]}]");
+
+        ArrayNode quotes = LoanQuoteGenerator.generate(rows, "Loan approval", LocalDateTime.of(2026, 10, 16, 9, 5, 3));
+
+        assertEquals(1, quotes.size());
+        assertEquals("V5K4", quotes.get(0).path("id").asText());
+        assertEquals("A-20261016090503", quotes.get(0).path("quote_reference_number__c").asText());
+    }
+
+    @Test
+    void readsTheMonthsFromTheFirstTwoCharacters() {
+        assertEquals(24, LoanQuoteGenerator.periodMonths("24_months__c"));
+        assertEquals(6, LoanQuoteGenerator.periodMonths("06_months__c"));
+        assertEquals(6, LoanQuoteGenerator.periodMonths("6_months__c"));
+        assertEquals(0, LoanQuoteGenerator.periodMonths(""));
+    }
+}
@@ -0,0 +1,202 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoanQuoteProcessorTest {
+    private static final String OBJECT_NAME = "vsdk_loan_approval__c";
+    private static final List<String> QUOTE_TIME_FIELDS = Arrays.asList("quote_reference_number__c", "quote_received_date__c");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PagingVault dispatcher = new PagingVault();
+    private MockWebServer vault;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void startVault() throws IOException {
+        vault = new MockWebServer();
+        vault.setDispatcher(dispatcher);
+        vault.start();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void stopVault() throws IOException {
+        executor.shutdown();
+        vault.shutdown();
+    }
+
+    @Test
+    void splitsIdsIntoChunksAndEscapesQuotes() {
+        LoanQuoteProcessor processor = processor(10, 2);
+
+        List<String> queries = processor.buildQueries(OBJECT_NAME, Arrays.asList("a", "b", "c", "d'e"));
+
+        assertEquals(2, queries.size());
+        assertTrue(queries.get(0).endsWith("WHERE id CONTAINS ('a','b') PAGESIZE 10"), queries.get(0));
+        assertTrue(queries.get(1).endsWith("WHERE id CONTAINS ('c','d\\'e') PAGESIZE 10"), queries.get(1));
+    }
+
+    @Test
+    void keepsQueriesWithinTheLengthLimit() {
+        List<String> ids = ids(2000);
+
+        for (String vql : processor(500, 2000).buildQueries(OBJECT_NAME, ids)) {
+            assertTrue(vql.length() <= LoanQuoteProcessor.MAX_QUERY_CHARS, "query of " + vql.length() + " chars");
+        }
+    }
+
+    @Test
+    void chunkedQueriesUpdateTheSameRecordsAsOneQuery() {
+        List<String> ids = ids(23);
+
+        assertTrue(processor(4, ids.size()).process(OBJECT_NAME, ids, "Loan re-quote", "SESSION"));
+        Map<String, JsonNode> serial = dispatcher.takeUpdates();
+        assertEquals(1, dispatcher.queries.getAndSet(0));
+
+        assertTrue(processor(4, 5).process(OBJECT_NAME, ids, "Loan re-quote", "SESSION"));
+        Map<String, JsonNode> chunked = dispatcher.takeUpdates();
+        assertEquals(5, dispatcher.queries.get());
+
+        assertEquals(ids.size(), serial.size());
+        assertEquals(serial, chunked);
+        assertEquals(0, dispatcher.duplicates.get());
+    }
+
+    @Test
+    void reportsAFailedPage() {
+        dispatcher.failPages = true;
+
+        assertFalse(processor(4, 10).process(OBJECT_NAME, ids(10), "Loan re-quote", "SESSION"));
+        assertEquals(4, dispatcher.takeUpdates().size());
+    }
+
+    private LoanQuoteProcessor processor(int pageSize, int chunkSize) {
+        String hostname = "http://" + vault.getHostName() + ":" + vault.getPort();
+        VaultRestClient client = new VaultRestClient(new OkHttpClient(), objectMapper, hostname, null);
+        return new LoanQuoteProcessor(client, pageSize, chunkSize, executor);
+    }
+
+    private static List<String> ids(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(String.format("V5K%012d", i));
+        }
+        return ids;
+    }
+
+    /*
+     * PagingVault answers /query with the first page of the requested ids and next_page links for the rest; a record's
+     * fields depend only on its id. Updates are recorded without the fields that hold the time of the quote.
+     */
+    private class PagingVault extends Dispatcher {
+        private final Pattern idsPattern = Pattern.compile("CONTAINS \\((.*)\\) PAGESIZE (\\d+)");
+        private final Map<String, List<String>> cursors = new ConcurrentHashMap<>();
+        private final Map<String, JsonNode> updates = new ConcurrentHashMap<>();
+        private final AtomicInteger queries = new AtomicInteger();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger cursorIds = new AtomicInteger();
+        private volatile boolean failPages;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            try {
+                HttpUrl url = request.getRequestUrl();
+                if ("POST".equals(request.getMethod())) {
+                    queries.incrementAndGet();
+                    Matcher matcher = idsPattern.matcher(URLDecoder.decode(request.getBody().readUtf8().substring(2), "UTF-8"));
+                    assertTrue(matcher.find());
+                    List<String> ids = new ArrayList<>();
+                    for (String literal : matcher.group(1).split(",")) {
+                        ids.add(literal.substring(1, literal.length() - 1));
+                    }
+                    String cursor = Integer.toString(cursorIds.incrementAndGet());
+                    cursors.put(cursor, ids);
+                    return json(page(cursor, Integer.parseInt(matcher.group(2)), 0));
+                }
+                if ("GET".equals(request.getMethod())) {
+                    if (failPages) {
+                        return json(objectMapper.createObjectNode().put("responseStatus", "FAILURE"));
+                    }
+                    return json(page(url.pathSegments().get(url.pathSize() - 1),
+                            Integer.parseInt(url.queryParameter("pagesize")),
+                            Integer.parseInt(url.queryParameter("pageoffset"))));
+                }
+                ObjectNode response = objectMapper.createObjectNode().put("responseStatus", "SUCCESS");
+                ArrayNode data = response.putArray("data");
+                for (JsonNode record : objectMapper.readTree(request.getBody().readUtf8())) {
+                    ((ObjectNode) record).remove(QUOTE_TIME_FIELDS);
+                    if (updates.put(record.path("id").asText(), record) != null) {
+                        duplicates.incrementAndGet();
+                    }
+                    data.addObject().put("responseStatus", "SUCCESS");
+                }
+                return json(response);
+            } catch (IOException e) {
+                return new MockResponse().setResponseCode(500);
+            }
+        }
+
+        Map<String, JsonNode> takeUpdates() {
+            Map<String, JsonNode> taken = new ConcurrentHashMap<>(updates);
+            updates.clear();
+            return taken;
+        }
+
+        private ObjectNode page(String cursor, int size, int offset) {
+            List<String> ids = cursors.get(cursor);
+            ObjectNode response = objectMapper.createObjectNode().put("responseStatus", "SUCCESS");
+            ObjectNode details = response.putObject("responseDetails").put("total", ids.size());
+            if (offset + size < ids.size()) {
+                details.put("next_page", "/api/v21.1/query/" + cursor + "?pagesize=" + size + "&pageoffset=" + (offset + size));
+            }
+            ArrayNode data = response.putArray("data");
+            for (int i = offset; i < Math.min(offset + size, ids.size()); i++) {
+                String id = ids.get(i);
+                int seed = Math.floorMod(id.hashCode(), 100);
+                ObjectNode row = data.addObject()
+                        .put("id", id)
+                        .put("name__v", "Ann")
+                        .put("surname__c", "Smith")
+                        .put("item__c", "Car")
+                        .put("loan_amount__c", 1000 + seed * 250)
+                        .putNull("number_of_quotes__c");
+                row.putArray("loan_period_months__c").add(seed % 2 == 0 ? "24_months__c" : "12_months__c");
+            }
+            return response;
+        }
+
+        private MockResponse json(ObjectNode body) throws IOException {
+            return new MockResponse().setHeader("Content-Type", "application/json")
+                    .setBody(objectMapper.writeValueAsString(body));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.veeva.vault;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PublicKeyCacheTest {
+    private static PublicKey publicKey;
+
+    @BeforeAll
+    static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        publicKey = generator.generateKeyPair().getPublic();
+    }
+
+    @AfterEach
+    void endInvocation() {
+        InvocationMetrics.current().unbind();
+    }
+
+    @Test
+    void loadsOnceAndServesHitsUntilInvalidated() {
+        PublicKeyCache cache = new PublicKeyCache(4, 1, TimeUnit.HOURS);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(publicKey, cache.get("cert-1", id -> {
+                loads.incrementAndGet();
+                return publicKey;
+            }));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.invalidate("cert-1");
+        cache.get("cert-1", id -> {
+            loads.incrementAndGet();
+            return publicKey;
+        });
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void doesNotCacheFailedLoads() {
+        PublicKeyCache cache = new PublicKeyCache(4, 1, TimeUnit.HOURS);
+
+        assertNull(cache.get("cert-1", id -> null));
+        assertEquals(0, cache.size());
+        assertSame(publicKey, cache.get("cert-1", id -> publicKey));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void expiresEntriesAfterTheirTimeToLive() throws Exception {
+        PublicKeyCache cache = new PublicKeyCache(4, 1, TimeUnit.MILLISECONDS);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("cert-1", id -> {
+            loads.incrementAndGet();
+            return publicKey;
+        });
+        Thread.sleep(5);
+        cache.get("cert-1", id -> {
+            loads.incrementAndGet();
+            return publicKey;
+        });
+
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void holdsAtMostMaxEntries() {
+        PublicKeyCache cache = new PublicKeyCache(2, 1, TimeUnit.HOURS);
+
+        cache.get("cert-1", id -> publicKey);
+        cache.get("cert-2", id -> publicKey);
+        cache.get("cert-3", id -> publicKey);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void countsHitsAndMissesIntoTheInvocationMetrics() throws Exception {
+        PublicKeyCache cache = new PublicKeyCache(1, 1, TimeUnit.HOURS);
+        InvocationMetrics metrics = InvocationMetrics.begin();
+
+        cache.get("cert-1", id -> publicKey);
+        cache.get("cert-1", id -> publicKey);
+        cache.get("cert-1", id -> publicKey);
+        cache.get("cert-2", id -> publicKey);
+
+        JsonNode emf = new ObjectMapper().readTree(metrics.toEmf(0));
+        assertEquals(2, emf.path("PublicKeyCacheHits").asInt());
+        assertEquals(2, emf.path("PublicKeyCacheMisses").asInt());
+        assertEquals(1, emf.path("PublicKeyCacheEvictions").asInt());
+    }
+}
@@ -0,0 +1,129 @@
+package com.veeva.vault;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SparkMessageEnvelopeTest {
+    private static final int MAX_BYTES = 1024;
+    private static final int MAX_ITEMS = 3;
+    private static final String ATTRIBUTES = "\"attributes\":{\"object\":\"vsdk_loan_approval__c\",\"event\":\"Loan re-quote\"}";
+
+    @Test
+    void readsTheAttributesAndCountsTheItems() throws Exception {
+        String body = "{\"message_id\":\"spark-1\",\"message\":{" + ATTRIBUTES + ",\"items\":[\"V5K000000000001\","
+                + "\"{\\\"id\\\":\\\"V5K000000000002\\\"}\"],\"data\":{\"nested\":[1,2]}},\"extra\":[{}]}";
+
+        SparkMessageEnvelope envelope = SparkMessageEnvelope.parse(body, MAX_BYTES, MAX_ITEMS);
+
+        assertEquals("spark-1", envelope.getMessageId());
+        assertEquals("vsdk_loan_approval__c", envelope.getObject());
+        assertEquals("Loan re-quote", envelope.getEvent());
+        assertEquals(2, envelope.getItemCount());
+        assertEquals(body.length(), envelope.getSizeBytes());
+    }
+
+    @Test
+    void leavesTheMessageIdOutWhenAbsent() throws Exception {
+        assertNull(SparkMessageEnvelope.parse(message("\"a\""), MAX_BYTES, MAX_ITEMS).getMessageId());
+    }
+
+    @Test
+    void measuresTheBodyInUtf8Bytes() throws Exception {
+        String body = "{\"message\":{" + ATTRIBUTES + ",\"items\":[\"\u20ac\"]}}";
+
+        assertEquals(body.length() + 2, SparkMessageEnvelope.parse(body, MAX_BYTES, MAX_ITEMS).getSizeBytes());
+    }
+
+    @Test
+    void rejectsAnEmptyBody() {
+        assertRejected(null, "Message body is empty");
+        assertRejected("", "Message body is empty");
+    }
+
+    @Test
+    void rejectsABodyLongerThanTheLimit() {
+        StringBuilder items = new StringBuilder("\"");
+        while (items.length() < MAX_BYTES) {
+            items.append('x');
+        }
+        assertRejected(message(items.append('"').toString()), "Message body exceeds " + MAX_BYTES + " bytes");
+    }
+
+    @Test
+    void rejectsABodyWithinTheLimitInCharsButNotInBytes() {
+        String body = message("\"\"");
+        StringBuilder items = new StringBuilder("\"");
+        // Each euro sign is one char but three UTF-8 bytes
+        while (body.length() + items.length() + 1 < MAX_BYTES) {
+            items.append('\u20ac');
+        }
+        String oversized = message(items.append('"').toString());
+
+        assertTrue(oversized.length() <= MAX_BYTES);
+        assertRejected(oversized, "Message body exceeds " + MAX_BYTES + " bytes");
+    }
+
+    @Test
+    void rejectsMoreItemsThanTheLimit() {
+        assertRejected(message("\"a\",\"b\",\"c\",\"d\""), "message.items exceeds " + MAX_ITEMS + " items");
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        InvalidSparkMessageException e = assertThrows(InvalidSparkMessageException.class,
+                () -> SparkMessageEnvelope.parse("{\"message\":{" + ATTRIBUTES + ",\"items\":[\"a\"", MAX_BYTES, MAX_ITEMS));
+        assertTrue(e.getMessage().startsWith("Message body is not valid JSON"), e.getMessage());
+    }
+
+    @Test
+    void rejectsABodyThatIsNotAnObject() {
+        assertRejected("[\"a\"]", "Message body is not a JSON object");
+    }
+
+    @Test
+    void rejectsContentAfterTheBody() {
+        assertRejected(message("\"a\"") + "{}", "Unexpected content after the message body");
+    }
+
+    @Test
+    void rejectsAMissingMessage() {
+        assertRejected("{\"message_id\":\"spark-1\"}", "message is missing");
+        assertRejected("{\"message\":[]}", "message is not an object");
+    }
+
+    @Test
+    void rejectsMissingAttributes() {
+        assertRejected("{\"message\":{\"items\":[\"a\"]}}", "message.attributes.object is missing");
+        assertRejected("{\"message\":{\"attributes\":[],\"items\":[\"a\"]}}", "message.attributes is not an object");
+        assertRejected("{\"message\":{\"attributes\":{\"object\":\"vsdk_loan_approval__c\"},\"items\":[\"a\"]}}",
+                "message.attributes.event is missing");
+    }
+
+    @Test
+    void rejectsMissingOrEmptyItems() {
+        assertRejected("{\"message\":{" + ATTRIBUTES + "}}", "message.items is missing or empty");
+        assertRejected(message(""), "message.items is missing or empty");
+        assertRejected("{\"message\":{" + ATTRIBUTES + ",\"items\":\"a\"}}", "message.items is not an array");
+    }
+
+    @Test
+    void rejectsItemsThatAreNotStrings() {
+        assertRejected(message("\"a\",{\"id\":\"b\"}"), "message.items holds a value that is not a string");
+        assertRejected(message("1"), "message.items holds a value that is not a string");
+        assertRejected(message("[\"a\"]"), "message.items holds a value that is not a string");
+    }
+
+    private static String message(String items) {
+        return "{\"message\":{" + ATTRIBUTES + ",\"items\":[" + items + "]}}";
+    }
+
+    private static void assertRejected(String body, String error) {
+        InvalidSparkMessageException e = assertThrows(InvalidSparkMessageException.class,
+                () -> SparkMessageEnvelope.parse(body, MAX_BYTES, MAX_ITEMS));
+        assertEquals(error, e.getMessage());
+    }
+}
@@ -0,0 +1,102 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SparkPayloadTransportTest {
+    private final StubAmazonS3 s3 = new StubAmazonS3();
+
+    @Test
+    void sendsRawBodiesUnlessEncodingIsEnabled() {
+        // SQS_PAYLOAD_ENCODING_ENABLED is not set for the tests
+        SparkPayloadTransport transport = SparkPayloadTransport.fromEnvironment(() -> s3);
+        String body = body(5000);
+        SendMessageBatchRequestEntry entry = entry(body);
+
+        assertTrue(transport.encode(entry));
+
+        assertEquals(body, entry.getMessageBody());
+        assertNull(entry.getMessageAttributes().get(SparkPayloadTransport.CONTENT_ENCODING));
+        assertEquals(0, s3.puts.get());
+        assertTrue(LambdaHandler.MAX_MESSAGE_BYTES < SqsBatchEnqueuer.MAX_BATCH_BYTES);
+    }
+
+    @Test
+    void keepsSmallBodiesRaw() {
+        SendMessageBatchRequestEntry entry = roundTrip(new SparkPayloadTransport(() -> s3, "bucket", 1024,
+                SqsBatchEnqueuer.MAX_BATCH_BYTES), body(1));
+
+        assertNull(entry.getMessageAttributes().get(SparkPayloadTransport.CONTENT_ENCODING));
+    }
+
+    @Test
+    void compressesBodiesAboveTheThreshold() {
+        SendMessageBatchRequestEntry entry = roundTrip(new SparkPayloadTransport(() -> s3, "bucket", 0,
+                SqsBatchEnqueuer.MAX_BATCH_BYTES), body(500));
+
+        assertEquals(SparkPayloadTransport.GZIP_BASE64, encoding(entry));
+        assertEquals(0, s3.puts.get());
+    }
+
+    @Test
+    void claimChecksBodiesStillTooLarge() {
+        SparkPayloadTransport transport = new SparkPayloadTransport(() -> s3, "bucket", 0, 0);
+        SendMessageBatchRequestEntry entry = roundTrip(transport, body(500));
+
+        assertEquals(SparkPayloadTransport.S3_GZIP, encoding(entry));
+        assertEquals(1, s3.objects.size());
+
+        transport.discard(entry.getMessageBody(), encoding(entry));
+
+        assertEquals(0, s3.objects.size());
+    }
+
+    @Test
+    void countsAMissingClaimCheckedBody() throws Exception {
+        SparkPayloadTransport transport = new SparkPayloadTransport(() -> s3, "bucket", 0, 0);
+        SendMessageBatchRequestEntry entry = roundTrip(transport, body(500));
+        s3.objects.clear();
+
+        InvocationMetrics metrics = InvocationMetrics.begin();
+        try {
+            // The body reads as empty, so the message is acknowledged rather than retried
+            assertEquals("", transport.decode(entry.getMessageBody(), encoding(entry)));
+        } finally {
+            metrics.unbind();
+        }
+        assertTrue(metrics.toEmf(0).contains("\"ClaimCheckMissing\":1.0"));
+    }
+
+    private static SendMessageBatchRequestEntry roundTrip(SparkPayloadTransport transport, String body) {
+        SendMessageBatchRequestEntry entry = entry(body);
+        assertTrue(transport.encode(entry));
+        assertEquals(body, transport.decode(entry.getMessageBody(), encoding(entry)));
+        return entry;
+    }
+
+    static SendMessageBatchRequestEntry entry(String body) {
+        return new SendMessageBatchRequestEntry()
+                .withMessageBody(body)
+                .addMessageAttributesEntry("object", new MessageAttributeValue()
+                        .withDataType("String").withStringValue("vsdk_loan_approval__c"));
+    }
+
+    static String encoding(SendMessageBatchRequestEntry entry) {
+        MessageAttributeValue encoding = entry.getMessageAttributes().get(SparkPayloadTransport.CONTENT_ENCODING);
+        return encoding != null ? encoding.getStringValue() : null;
+    }
+
+    static String body(int items) {
+        StringBuilder body = new StringBuilder("{\"message_id\":\"spark-1\",\"message\":{\"attributes\":{\"object\":")
+                .append("\"vsdk_loan_approval__c\",\"event\":\"Loan re-quote\",\"sessionId\":\"SESSION\"},\"items\":[");
+        for (int i = 0; i < items; i++) {
+            body.append(i == 0 ? "" : ",").append(String.format("\"V5K%012d\"", i));
+        }
+        return body.append("]}}").toString();
+    }
+}
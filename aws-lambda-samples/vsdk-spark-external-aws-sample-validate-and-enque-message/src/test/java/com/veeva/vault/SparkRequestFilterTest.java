@@ -0,0 +1,199 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SparkRequestFilterTest {
+    private static final Locale DEFAULT_LOCALE = Locale.getDefault();
+    private static final long NOW = Instant.parse("2026-10-15T10:00:30Z").toEpochMilli();
+    private static final String BODY = "{\"message\":{\"attributes\":{\"object\":\"vsdk_loan_approval__c\","
+            + "\"event\":\"Loan re-quote\"},\"items\":[\"V5K000000000001\"]}}";
+    private static final String[] REQUIRED_HEADERS = {
+            "x-vaultapi-signaturev2",
+            "x-vaultapisignature-certificateid",
+            "x-vaultapisignature-date",
+            "x-vaultapisignature-url"};
+    private static PrivateKey privateKey;
+
+    private final SparkRequestFilter filter = new SparkRequestFilter(600, 60, 1000);
+
+    @BeforeAll
+    static void loadKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = SparkRequestFilterTest.class.getClassLoader().getResourceAsStream("signing-keystore.p12")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        privateKey = (PrivateKey) keyStore.getKey("spark", "changeit".toCharArray());
+    }
+
+    @AfterEach
+    void restoreLocale() {
+        Locale.setDefault(DEFAULT_LOCALE);
+    }
+
+    @Test
+    void passesACompleteRecentRequest() {
+        assertNull(filter.check(headers("signature-1", NOW), NOW));
+    }
+
+    @Test
+    void rejectsEachMissingOrBlankHeader() {
+        for (String name : REQUIRED_HEADERS) {
+            Map<String, String> headers = headers("signature-1", NOW);
+            headers.remove(name);
+            assertEquals(SparkRequestFilter.MISSING_HEADERS, filter.check(headers, NOW), name);
+
+            headers.put(name, " ");
+            assertEquals(SparkRequestFilter.MISSING_HEADERS, filter.check(headers, NOW), name);
+        }
+    }
+
+    @Test
+    void findsLowerCaseHeadersUnderATurkishLocale() {
+        // Lower-casing "CertificateId" under tr-TR would give a dotless i and miss the header
+        Locale.setDefault(new Locale("tr", "TR"));
+
+        assertNull(filter.check(headers("signature-1", NOW), NOW));
+    }
+
+    @Test
+    void rejectsADateThatCannotBeParsed() {
+        Map<String, String> headers = headers("signature-1", NOW);
+        headers.put("x-vaultapisignature-date", "Thu, 15 Oct 2026 10:00:00 GMT");
+
+        assertEquals(SparkRequestFilter.MALFORMED_DATE, filter.check(headers, NOW));
+    }
+
+    @Test
+    void rejectsADateOlderThanTheMaxAge() {
+        long maxAge = TimeUnit.SECONDS.toMillis(600);
+
+        assertNull(filter.check(headers("signature-1", NOW - maxAge), NOW));
+        assertEquals(SparkRequestFilter.STALE_REQUEST, filter.check(headers("signature-1", NOW - maxAge - 1000), NOW));
+    }
+
+    @Test
+    void rejectsADateTooFarInTheFuture() {
+        long maxSkew = TimeUnit.SECONDS.toMillis(60);
+
+        assertNull(filter.check(headers("signature-1", NOW + maxSkew), NOW));
+        assertEquals(SparkRequestFilter.STALE_REQUEST, filter.check(headers("signature-1", NOW + maxSkew + 1000), NOW));
+    }
+
+    @Test
+    void acceptsAnyDateWithoutAMaxAge() {
+        SparkRequestFilter unbounded = new SparkRequestFilter(0, 60, 1000);
+
+        assertNull(unbounded.check(headers("signature-1", NOW - TimeUnit.DAYS.toMillis(1)), NOW));
+        assertNull(unbounded.check(headers("signature-1", NOW + TimeUnit.DAYS.toMillis(1)), NOW));
+    }
+
+    @Test
+    void rejectsAReplayWithinItsBucket() {
+        filter.accept(headers("signature-1", NOW), NOW);
+
+        assertEquals(SparkRequestFilter.REPLAYED_REQUEST, filter.check(headers("signature-1", NOW), NOW + 30_000));
+        // Another signature, or the same one under another date, is a different request
+        assertNull(filter.check(headers("signature-2", NOW), NOW + 30_000));
+        assertNull(filter.check(headers("signature-1", NOW + 60_000), NOW + 30_000));
+    }
+
+    @Test
+    void acceptsARequestAgainOnceItsBucketIsEvicted() {
+        SparkRequestFilter small = new SparkRequestFilter(600, 60, 1);
+        small.accept(headers("signature-1", NOW - 120_000), NOW);
+        assertEquals(SparkRequestFilter.REPLAYED_REQUEST, small.check(headers("signature-1", NOW - 120_000), NOW));
+
+        // A newer bucket pushes the oldest one out of the full cache
+        small.accept(headers("signature-2", NOW), NOW);
+
+        assertNull(small.check(headers("signature-1", NOW - 120_000), NOW));
+        assertEquals(SparkRequestFilter.REPLAYED_REQUEST, small.check(headers("signature-2", NOW), NOW));
+    }
+
+    @Test
+    void rejectsIncompleteAndStaleRequestsBeforeTheCertificateLookup() throws Exception {
+        // Without an S3 client or Vault session, any request that got past the filter would fail
+        LambdaHandler handler = new LambdaHandler(null, null, null, new SparkRequestFilter(600, 60, 1000));
+        long now = System.currentTimeMillis();
+        Map<String, String> missing = signedHeaders("missing-" + System.nanoTime(), now);
+        missing.remove("x-vaultapisignature-url");
+        Map<String, String> stale = signedHeaders("stale-" + System.nanoTime(), now - TimeUnit.HOURS.toMillis(1));
+
+        APIGatewayV2HTTPResponse incomplete = handler.processMessage(missing, BODY, InvocationMetrics.begin());
+        APIGatewayV2HTTPResponse expired = handler.processMessage(stale, BODY, InvocationMetrics.begin());
+
+        assertEquals(400, incomplete.getStatusCode());
+        assertEquals(403, expired.getStatusCode());
+        assertEquals("Expired Request", expired.getBody());
+    }
+
+    @Test
+    void remembersARequestOnlyOnceItIsEnqueued() throws Exception {
+        String certificateId = "replay-" + System.nanoTime();
+        StubAmazonS3 s3 = new StubAmazonS3();
+        s3.putObject("bucket", "PublicKeys/" + certificateId + ".pem",
+                CertificateSingleFlightTest.resource("signing-certificate.pem"));
+        AtomicBoolean queueDown = new AtomicBoolean(true);
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync(body -> queueDown.get());
+        LambdaHandler handler = new LambdaHandler(s3, new SqsBatchEnqueuer(sqs, "https://sqs.local/queue", 0, 1),
+                null, new SparkRequestFilter(600, 60, 1000));
+        Map<String, String> headers = signedHeaders(certificateId, System.currentTimeMillis());
+
+        // A delivery that could not be enqueued is not remembered, so Vault's retry goes through
+        assertEquals(500, handler.processMessage(headers, BODY, InvocationMetrics.begin()).getStatusCode());
+        queueDown.set(false);
+        APIGatewayV2HTTPResponse retried = handler.processMessage(headers, BODY, InvocationMetrics.begin());
+        APIGatewayV2HTTPResponse replayed = handler.processMessage(headers, BODY, InvocationMetrics.begin());
+
+        assertEquals(200, retried.getStatusCode());
+        assertEquals("SUCCESS", retried.getBody());
+        assertEquals(200, replayed.getStatusCode());
+        assertEquals("DUPLICATE", replayed.getBody());
+        assertEquals(2, sqs.batches.size());
+    }
+
+    private static Map<String, String> headers(String signature, long signedAt) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-vaultapi-signaturev2", signature);
+        headers.put("x-vaultapisignature-certificateid", "00001");
+        headers.put("x-vaultapisignature-date", Instant.ofEpochMilli(signedAt).toString());
+        headers.put("x-vaultapisignature-url", "https://example.com/message");
+        return headers;
+    }
+
+    /*
+     * signedHeaders returns the lower case headers API Gateway v2 delivers for BODY, signed with the test keystore
+     */
+    private static Map<String, String> signedHeaders(String certificateId, long signedAt) throws Exception {
+        Map<String, String> headers = headers("", signedAt);
+        headers.put("x-vaultapisignature-certificateid", certificateId);
+        headers.put("x-vaultapisignature-algorithm", "Vault-RSA-SHA256");
+        headers.put("x-vaultapisignature-version", "2.0");
+        headers.remove("x-vaultapi-signaturev2");
+
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(privateKey);
+        signer.update(new LambdaHandler(null, null, null, null).prepareDataToVerify(headers, BODY).getBytes(StandardCharsets.UTF_8));
+        headers.put("x-vaultapi-signaturev2", Base64.getEncoder().encodeToString(signer.sign()));
+        return headers;
+    }
+}
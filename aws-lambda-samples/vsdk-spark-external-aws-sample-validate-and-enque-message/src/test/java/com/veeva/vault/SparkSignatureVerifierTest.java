@@ -0,0 +1,244 @@
+package com.veeva.vault;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Golden tests: the bytes SparkSignatureVerifier streams into the signature must be exactly the UTF-8 bytes of
+ * LambdaHandler.prepareDataToVerify, whatever the headers, body and default locale
+ */
+class SparkSignatureVerifierTest {
+    private static final Locale DEFAULT_LOCALE = Locale.getDefault();
+    private static PrivateKey privateKey;
+    private static PublicKey publicKey;
+
+    private final LambdaHandler handler = new LambdaHandler(null, null, null, null);
+
+    @BeforeAll
+    static void loadKeys() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = SparkSignatureVerifierTest.class.getClassLoader()
+                .getResourceAsStream("signing-keystore.p12")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        privateKey = (PrivateKey) keyStore.getKey("spark", "changeit".toCharArray());
+        publicKey = keyStore.getCertificate("spark").getPublicKey();
+    }
+
+    @AfterEach
+    void restoreLocale() {
+        Locale.setDefault(DEFAULT_LOCALE);
+    }
+
+    @Test
+    void streamsTheStringToVerifyOfVaultHeaders() throws Exception {
+        assertSameBytes(vaultHeaders("x-vaultapisignature-"), "{\"message\":{\"items\":[\"V5K000000000001\"]}}");
+        assertSameBytes(vaultHeaders("X-VaultAPISignature-"), "{\"message\":{\"items\":[\"V5K000000000001\"]}}");
+    }
+
+    @Test
+    void streamsNonAsciiHeaderNamesAndValues() throws Exception {
+        Map<String, String> headers = vaultHeaders("X-VaultAPISignature-");
+        headers.put("X-VaultAPISignature-\u00dcn\u00efcode", "  v\u00e4lue  ");
+        headers.put("X-VaultAPISignature-\u0130d", "\u00e9t\u00e9");
+        headers.put("X-VaultAPISignature-\u03a3\u0399\u0393\u039c\u0391", "\u03c3");
+        headers.put("X-Other-Header", "ignored");
+        assertSameBytes(headers, "{\"message\":{\"items\":[\"V5K000000000001\"]}}");
+    }
+
+    @Test
+    void streamsNonAsciiBodies() throws Exception {
+        Map<String, String> headers = vaultHeaders("x-vaultapisignature-");
+        assertSameBytes(headers, "{\"name\":\"Zo\u00eb \u5f20\u4f1f \ud83d\ude00 \u00df\"}");
+        // Unpaired surrogates are replaced the way String.getBytes replaces them
+        assertSameBytes(headers, "{\"name\":\"\ud83d broken \ude00\"}");
+        assertSameBytes(headers, "");
+        assertSameBytes(headers, null);
+    }
+
+    @Test
+    void streamsBodiesLongerThanTheBuffer() throws Exception {
+        // Multi-byte characters at every offset make some of them straddle the 8 KB buffer boundary
+        StringBuilder body = new StringBuilder("{\"items\":\"");
+        for (int i = 0; i < 20_000; i++) {
+            body.append(i % 3 == 0 ? "\u20ac" : i % 3 == 1 ? "\ud83d\ude00" : "a");
+        }
+        body.append("\"}");
+        assertSameBytes(vaultHeaders("X-VaultAPISignature-"), body.toString());
+    }
+
+    @Test
+    void streamsRequestsWithoutAUrl() throws Exception {
+        Map<String, String> headers = vaultHeaders("x-vaultapisignature-");
+        headers.remove("x-vaultapisignature-url");
+        assertSameBytes(headers, "{}");
+    }
+
+    @Test
+    void keepsHeaderNamesCanonicalUnderATurkishLocale() throws Exception {
+        Locale.setDefault(new Locale("tr", "TR"));
+        Map<String, String> headers = vaultHeaders("X-VaultAPISignature-");
+        headers.put("X-VaultAPISignature-\u0130d", "value");
+
+        byte[] expected = assertSameBytes(headers, "{\"items\":[\"V5K000000000001\"]}");
+        String stringToVerify = new String(expected, StandardCharsets.UTF_8);
+        assertTrue(stringToVerify.startsWith("x-vaultapisignature-certificateid:"));
+        assertFalse(stringToVerify.contains("\u0131"));
+    }
+
+    @Test
+    void verifiesSignaturesOverTheStringToVerify() throws Exception {
+        for (Locale locale : new Locale[]{Locale.ROOT, new Locale("tr", "TR")}) {
+            Locale.setDefault(locale);
+            Map<String, String> headers = vaultHeaders("X-VaultAPISignature-");
+            headers.put("X-VaultAPISignature-\u00dcn\u00efcode", "v\u00e4lue");
+            String body = "{\"name\":\"Zo\u00eb \ud83d\ude00\"}";
+            String signature = sign(handler.prepareDataToVerify(headers, body));
+
+            assertTrue(SparkSignatureVerifier.verify(headers, body, signature, publicKey));
+            assertTrue(SparkSignatureVerifier.verify(handler.prepareDataToVerify(headers, body), signature, publicKey));
+            assertFalse(SparkSignatureVerifier.verify(headers, body + " ", signature, publicKey));
+        }
+    }
+
+    @Test
+    void sharesABoundedPoolOfSignaturesAcrossThreads() throws Exception {
+        Map<String, String> headers = vaultHeaders("X-VaultAPISignature-");
+        String body = "{\"message\":{\"items\":[\"V5K000000000001\"]}}";
+        String signature = sign(handler.prepareDataToVerify(headers, body));
+        int threads = 4 * SparkSignatureVerifier.POOL_SIZE;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                boolean valid = i % 2 == 0;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    boolean verified = true;
+                    for (int call = 0; call < 20; call++) {
+                        verified &= SparkSignatureVerifier.verify(headers, valid ? body : body + " ", signature, publicKey) == valid;
+                    }
+                    return verified;
+                }));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(SparkSignatureVerifier.pooledStates() <= SparkSignatureVerifier.POOL_SIZE);
+        assertTrue(SparkSignatureVerifier.pooledStates() > 0);
+    }
+
+    /*
+     * assertSameBytes compares the streamed bytes with prepareDataToVerify and returns them
+     */
+    private byte[] assertSameBytes(Map<String, String> headers, String body) throws Exception {
+        byte[] expected = handler.prepareDataToVerify(headers, body).getBytes(StandardCharsets.UTF_8);
+
+        RecordingSignature recording = new RecordingSignature();
+        SparkSignatureVerifier.VerifierState state = new SparkSignatureVerifier.VerifierState(recording);
+        state.begin(publicKey);
+        SparkSignatureVerifier.update(state, headers, body);
+
+        assertArrayEquals(expected, recording.bytes.toByteArray());
+        return expected;
+    }
+
+    private static Map<String, String> vaultHeaders(String prefix) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(prefix + "CertificateId", "00001");
+        headers.put(prefix + "Date", "Thu, 15 Oct 2026 10:00:00 GMT");
+        headers.put(prefix + "UserId", "12345");
+        headers.put(prefix + "VaultId", " 1000 ");
+        headers.put(prefix + "URL", "https://example.com/message?vault=1000&x=%C3%BC");
+        headers.put("content-type", "application/json");
+        return headers;
+    }
+
+    private static String sign(String stringToVerify) throws Exception {
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(privateKey);
+        signer.update(stringToVerify.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(signer.sign());
+    }
+
+    /*
+     * RecordingSignature keeps the bytes it is updated with instead of verifying them
+     */
+    private static final class RecordingSignature extends Signature {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private RecordingSignature() {
+            super("Recording");
+        }
+
+        @Override
+        protected void engineInitVerify(PublicKey publicKey) {
+            bytes.reset();
+        }
+
+        @Override
+        protected void engineInitSign(PrivateKey privateKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void engineUpdate(byte b) {
+            bytes.write(b);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        protected byte[] engineSign() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected boolean engineVerify(byte[] sigBytes) {
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        protected void engineSetParameter(String param, Object value) {
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        protected Object engineGetParameter(String param) {
+            return null;
+        }
+    }
+}
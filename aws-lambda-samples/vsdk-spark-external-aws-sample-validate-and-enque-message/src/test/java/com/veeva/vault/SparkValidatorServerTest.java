@@ -0,0 +1,60 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SparkValidatorServerTest {
+
+    @Test
+    void stopWaitsForOneGracePeriodInTotal() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        SparkValidatorServer server = new SparkValidatorServer(new LambdaHandler(null, null, null, null) {
+            @Override
+            public APIGatewayV2HTTPResponse processMessage(Map<String, String> headers, String body, InvocationMetrics metrics) {
+                started.countDown();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return APIGatewayV2HTTPResponse.builder().withStatusCode(200).withBody("SUCCESS").build();
+            }
+        }, 0, 4);
+        server.start();
+
+        Thread request = new Thread(() -> post(server.getPort()));
+        request.setDaemon(true);
+        request.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        server.stop(1);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 900 && elapsedMillis < 1800, "stopped after " + elapsedMillis + "ms");
+    }
+
+    private static void post(int port) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write("{}".getBytes(StandardCharsets.UTF_8));
+            }
+            connection.getResponseCode();
+        } catch (Exception e) {
+            // The server is stopped while the request is in flight
+        }
+    }
+}
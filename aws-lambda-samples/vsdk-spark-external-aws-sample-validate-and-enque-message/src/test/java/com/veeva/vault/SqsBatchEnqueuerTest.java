@@ -0,0 +1,215 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqsBatchEnqueuerTest {
+    private static final String QUEUE_URL = "https://sqs.local/queue";
+
+    @Test
+    void sendsBatchesOfAtMostTenEntries() {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3);
+
+        assertTrue(enqueuer.enqueue(bodies(25, 10)).isEmpty());
+
+        assertEquals(Arrays.asList(10, 10, 5), sqs.batchSizes());
+    }
+
+    @Test
+    void splitsBatchesAtTheSqsPayloadLimit() {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3);
+
+        assertTrue(enqueuer.enqueue(bodies(5, 100 * 1024)).isEmpty());
+
+        assertEquals(Arrays.asList(2, 2, 1), sqs.batchSizes());
+    }
+
+    @Test
+    void reportsSenderFaultsWithoutRetrying() {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync(body -> body.startsWith("3:"));
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3);
+
+        List<String> failed = enqueuer.enqueue(bodies(5, 10));
+
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0).startsWith("3:"));
+        assertEquals(Collections.singletonList(5), sqs.batchSizes());
+    }
+
+    @Test
+    void sendsEachEntryOnItsOwnWithoutLinger() throws Exception {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3);
+
+        List<Boolean> enqueued = enqueueConcurrently(enqueuer, bodies(4, 10));
+
+        assertEquals(Arrays.asList(true, true, true, true), enqueued);
+        assertEquals(Arrays.asList(1, 1, 1, 1), sqs.batchSizes());
+    }
+
+    @Test
+    void coalescesConcurrentEntriesWithinTheLinger() throws Exception {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3, 500);
+
+        List<Boolean> enqueued = enqueueConcurrently(enqueuer, bodies(4, 10));
+
+        assertEquals(Arrays.asList(true, true, true, true), enqueued);
+        assertEquals(Collections.singletonList(4), sqs.batchSizes());
+    }
+
+    @Test
+    void sendsAFullBatchWithoutWaitingForTheLinger() throws Exception {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3, 60_000);
+
+        long start = System.nanoTime();
+        List<Boolean> enqueued = enqueueConcurrently(enqueuer, bodies(20, 10));
+
+        assertEquals(20, enqueued.stream().filter(Boolean::booleanValue).count());
+        assertEquals(Arrays.asList(10, 10), sqs.batchSizes());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    void closesACoalescedBatchBeforeItPassesThePayloadLimit() throws Exception {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3, 500);
+
+        List<Boolean> enqueued = enqueueConcurrently(enqueuer, bodies(3, 100 * 1024));
+
+        assertEquals(Arrays.asList(true, true, true), enqueued);
+        assertEquals(Arrays.asList(1, 2), sortedBatchSizes(sqs));
+    }
+
+    @Test
+    void reportsAFailedEntryOnlyToItsOwnCaller() throws Exception {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync(body -> body.startsWith("2:"));
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 0, 3, 500);
+
+        List<Boolean> enqueued = enqueueConcurrently(enqueuer, bodies(4, 10));
+
+        assertEquals(Arrays.asList(true, true, false, true), enqueued);
+        assertEquals(Collections.singletonList(4), sqs.batchSizes());
+    }
+
+    @Test
+    void leavesTheCallersEntriesUnchanged() {
+        StubAmazonSQSAsync sqs = new StubAmazonSQSAsync();
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(sqs, QUEUE_URL, 5, 3);
+        SendMessageBatchRequestEntry entry = new SendMessageBatchRequestEntry().withId("caller-id").withMessageBody("body");
+
+        assertTrue(enqueuer.enqueueEntries(Collections.singletonList(entry)).isEmpty());
+
+        assertEquals("caller-id", entry.getId());
+        assertNull(entry.getDelaySeconds());
+        SendMessageBatchRequestEntry sent = sqs.batches.get(0).get(0);
+        assertEquals("0", sent.getId());
+        assertEquals(Integer.valueOf(5), sent.getDelaySeconds());
+    }
+
+    @Test
+    void reportsAnInterruptedBatchAsFailedWithoutResendingIt() {
+        AtomicInteger calls = new AtomicInteger();
+        // The result never arrives, so the caller is still waiting on it when interrupted
+        SqsBatchEnqueuer enqueuer = new SqsBatchEnqueuer(new AbstractAmazonSQSAsync() {
+            @Override
+            public Future<SendMessageBatchResult> sendMessageBatchAsync(SendMessageBatchRequest request) {
+                calls.incrementAndGet();
+                return new CompletableFuture<>();
+            }
+        }, QUEUE_URL, 0, 3);
+        List<SendMessageBatchRequestEntry> entries = Arrays.asList(
+                new SendMessageBatchRequestEntry().withMessageBody("a"),
+                new SendMessageBatchRequestEntry().withMessageBody("b"));
+
+        Thread.currentThread().interrupt();
+        List<SendMessageBatchRequestEntry> failed;
+        try {
+            failed = enqueuer.enqueueEntries(entries);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(2, failed.size());
+        assertSame(entries.get(0), failed.get(0));
+        assertSame(entries.get(1), failed.get(1));
+    }
+
+    @Test
+    void measuresPayloadsInUtf8Bytes() {
+        assertEquals(0, SqsBatchEnqueuer.utf8Length(null));
+        assertEquals(5, SqsBatchEnqueuer.utf8Length("ascii"));
+        // e-acute is 2 bytes, the euro sign 3 and an emoji, a surrogate pair, 4
+        assertEquals(9, SqsBatchEnqueuer.utf8Length("\u00e9\u20ac\ud83d\ude00"));
+        assertEquals(9 + 6 + 6 + 1, SqsBatchEnqueuer.entrySize(new SendMessageBatchRequestEntry()
+                .withMessageBody("\u00e9\u20ac\ud83d\ude00")
+                .addMessageAttributesEntry("object", new MessageAttributeValue()
+                        .withDataType("String").withStringValue("x"))));
+    }
+
+    private static List<Boolean> enqueueConcurrently(SqsBatchEnqueuer enqueuer, List<String> bodies) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(bodies.size());
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (String body : bodies) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return enqueuer.enqueueEntry(new SendMessageBatchRequestEntry().withMessageBody(body));
+                }));
+            }
+            start.countDown();
+            List<Boolean> enqueued = new ArrayList<>();
+            for (Future<Boolean> future : futures) {
+                enqueued.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return enqueued;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Integer> sortedBatchSizes(StubAmazonSQSAsync sqs) {
+        List<Integer> sizes = sqs.batchSizes();
+        Collections.sort(sizes);
+        return sizes;
+    }
+
+    private static List<String> bodies(int count, int length) {
+        List<String> bodies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder body = new StringBuilder(i + ":");
+            while (body.length() < length) {
+                body.append('x');
+            }
+            bodies.add(body.toString());
+        }
+        return bodies;
+    }
+}
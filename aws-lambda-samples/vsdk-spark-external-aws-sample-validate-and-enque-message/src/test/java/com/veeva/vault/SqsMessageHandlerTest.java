@@ -0,0 +1,250 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqsMessageHandlerTest {
+    private static final String BODY = "{\"message_id\":\"spark-1\",\"message\":{\"attributes\":{\"object\":\"vsdk_loan_approval__c\","
+            + "\"event\":\"Loan re-quote\",\"sessionId\":\"SESSION\"},\"items\":[\"V5K000000000001\",\"V5K000000000002\"]}}";
+
+    private final StubAmazonS3 s3 = new StubAmazonS3();
+    private final RecordingProcessor processor = new RecordingProcessor();
+    private final IdempotencyStore store = new IdempotencyStore(new InMemoryIdempotencyBackend(), 100, 900, 86400);
+
+    @Test
+    void processesARedeliveredMessageOnce() {
+        SqsMessageHandler handler = new SqsMessageHandler(processor, store, transport());
+
+        assertTrue(handler.processMessage(message("sqs-1", BODY)));
+        assertTrue(handler.processMessage(message("sqs-2", BODY)));
+
+        assertEquals(1, processor.calls.size());
+        assertEquals("[V5K000000000001, V5K000000000002]", processor.calls.get(0).toString());
+    }
+
+    @Test
+    void processesARedeliveryAfterAFailedAttempt() {
+        SqsMessageHandler handler = new SqsMessageHandler(processor, store, transport());
+        processor.result = false;
+        assertFalse(handler.processMessage(message("sqs-1", BODY)));
+
+        processor.result = true;
+        assertTrue(handler.processMessage(message("sqs-2", BODY)));
+
+        assertEquals(2, processor.calls.size());
+    }
+
+    @Test
+    void discardsTheClaimCheckedBodyOfADuplicate() {
+        SparkPayloadTransport claimCheck = new SparkPayloadTransport(() -> s3, "spark-bucket", 0, 0);
+        SqsMessageHandler handler = new SqsMessageHandler(processor, store, claimCheck);
+        // A Spark redelivery enqueued again stores a second copy of the body
+        SQSEvent.SQSMessage first = claimChecked(claimCheck, "sqs-1");
+        SQSEvent.SQSMessage second = claimChecked(claimCheck, "sqs-2");
+        assertEquals(2, s3.objects.size());
+
+        assertTrue(handler.processMessage(first));
+        assertTrue(handler.processMessage(second));
+
+        assertEquals(1, processor.calls.size());
+        assertEquals(0, s3.objects.size());
+    }
+
+    @Test
+    void keepsTheClaimCheckedBodyOfAMessageStillBeingProcessed() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        RecordingProcessor slowProcessor = new RecordingProcessor() {
+            @Override
+            public boolean process(String objectName, List<String> ids, ArrayNode rows, String event, String sessionId) {
+                boolean processed = super.process(objectName, ids, rows, event, sessionId);
+                started.countDown();
+                try {
+                    finish.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return processed;
+            }
+        };
+        SparkPayloadTransport claimCheck = new SparkPayloadTransport(() -> s3, "spark-bucket", 0, 0);
+        SqsMessageHandler handler = new SqsMessageHandler(slowProcessor, store, claimCheck);
+        // An SQS redelivery after a visibility timeout carries the same S3 pointer as the attempt still running
+        SQSEvent.SQSMessage message = claimChecked(claimCheck, "sqs-1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            slowProcessor.result = false;
+            Future<Boolean> firstAttempt = executor.submit(() -> handler.processMessage(message));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            assertFalse(handler.processMessage(message));
+            assertEquals(1, s3.objects.size());
+
+            finish.countDown();
+            assertFalse(firstAttempt.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        // The failed attempt released the key, so the retry still finds the body and processes it
+        slowProcessor.result = true;
+        assertTrue(handler.processMessage(message));
+        assertEquals(2, slowProcessor.calls.size());
+        assertEquals(0, s3.objects.size());
+    }
+
+    @Test
+    void acknowledgesAMessageWhoseClaimCheckedBodyIsMissing() throws Exception {
+        SparkPayloadTransport claimCheck = new SparkPayloadTransport(() -> s3, "spark-bucket", 0, 0);
+        SqsMessageHandler handler = new SqsMessageHandler(processor, store, claimCheck);
+        SQSEvent.SQSMessage message = claimChecked(claimCheck, "sqs-1");
+        s3.objects.clear();
+
+        InvocationMetrics metrics = InvocationMetrics.begin();
+        try {
+            assertTrue(handler.processMessage(message));
+        } finally {
+            metrics.unbind();
+        }
+
+        assertTrue(processor.calls.isEmpty());
+        String emf = metrics.toEmf(0);
+        assertTrue(emf.contains("\"ClaimCheckMissing\":1.0"));
+        assertFalse(emf.contains("DuplicateMessages"));
+    }
+
+    @Test
+    void processesEveryDeliveryWithoutAStore() {
+        SqsMessageHandler handler = new SqsMessageHandler(processor, null, transport());
+
+        assertTrue(handler.processMessage(message("sqs-1", BODY)));
+        assertTrue(handler.processMessage(message("sqs-2", BODY)));
+
+        assertEquals(2, processor.calls.size());
+    }
+
+    @Test
+    void refreshesTheIntegrationSessionWhenVaultRejectsIt() throws Exception {
+        String body = BODY.replace(",\"sessionId\":\"SESSION\"", "");
+        List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+        MockWebServer vault = new MockWebServer();
+        vault.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                authorizations.add(request.getHeader("Authorization"));
+                if ("SESSION-1".equals(request.getHeader("Authorization"))) {
+                    return new MockResponse().setBody("{\"responseStatus\":\"FAILURE\",\"errors\":[{\"type\":"
+                            + "\"INVALID_SESSION_ID\",\"message\":\"Invalid or expired session ID.\"}]}");
+                }
+                return new MockResponse().setBody("{\"responseStatus\":\"SUCCESS\",\"data\":[]}");
+            }
+        });
+        vault.start();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AtomicInteger logins = new AtomicInteger();
+            VaultSessionManager sessionManager = new VaultSessionManager(
+                    () -> "SESSION-" + logins.incrementAndGet(), 10, TimeUnit.MINUTES);
+            VaultRestClient client = new VaultRestClient(new OkHttpClient(), new ObjectMapper(),
+                    vault.url("").toString().replaceAll("/$", ""), null);
+            SqsMessageHandler handler = new SqsMessageHandler(new LoanQuoteProcessor(client, 200, 100, executor),
+                    null, transport(), sessionManager);
+
+            assertTrue(handler.processMessage(message("sqs-1", body)));
+
+            assertEquals(2, logins.get());
+            assertEquals(Arrays.asList("SESSION-1", "SESSION-2"), authorizations);
+            // The new session is kept for the next message
+            assertEquals("SESSION-2", sessionManager.getSessionId());
+        } finally {
+            executor.shutdown();
+            vault.shutdown();
+        }
+    }
+
+    @Test
+    void failsAMessageWhoseOwnSessionIsRejected() {
+        AtomicInteger logins = new AtomicInteger();
+        VaultSessionManager sessionManager = new VaultSessionManager(
+                () -> "SESSION-" + logins.incrementAndGet(), 10, TimeUnit.MINUTES);
+        processor.rejectSession = true;
+        SqsMessageHandler handler = new SqsMessageHandler(processor, store, transport(), sessionManager);
+
+        assertFalse(handler.processMessage(message("sqs-1", BODY)));
+
+        // The message sent its own session, so there is nothing to refresh and the delivery is retried by SQS
+        assertEquals(0, logins.get());
+        assertEquals(1, processor.calls.size());
+        processor.rejectSession = false;
+        assertTrue(handler.processMessage(message("sqs-2", BODY)));
+    }
+
+    private SparkPayloadTransport transport() {
+        return new SparkPayloadTransport(() -> s3, "spark-bucket", Integer.MAX_VALUE, SqsBatchEnqueuer.MAX_BATCH_BYTES);
+    }
+
+    private static SQSEvent.SQSMessage claimChecked(SparkPayloadTransport transport, String messageId) {
+        SendMessageBatchRequestEntry entry = SparkPayloadTransportTest.entry(BODY);
+        assertTrue(transport.encode(entry));
+        SQSEvent.MessageAttribute encoding = new SQSEvent.MessageAttribute();
+        encoding.setDataType("String");
+        encoding.setStringValue(SparkPayloadTransportTest.encoding(entry));
+        SQSEvent.SQSMessage message = message(messageId, entry.getMessageBody());
+        message.setMessageAttributes(Collections.singletonMap(SparkPayloadTransport.CONTENT_ENCODING, encoding));
+        return message;
+    }
+
+    static SQSEvent.SQSMessage message(String messageId, String body) {
+        SQSEvent.SQSMessage message = new SQSEvent.SQSMessage();
+        message.setMessageId(messageId);
+        message.setBody(body);
+        message.setMessageAttributes(Collections.emptyMap());
+        return message;
+    }
+
+    /*
+     * RecordingProcessor records the ids of every message it is asked to process instead of calling Vault;
+     * with rejectSession set, it fails like a Vault call rejected with INVALID_SESSION_ID
+     */
+    static class RecordingProcessor extends LoanQuoteProcessor {
+        final List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean result = true;
+        volatile boolean rejectSession;
+
+        RecordingProcessor() {
+            super(null, 1, 1, null);
+        }
+
+        @Override
+        public boolean process(String objectName, List<String> ids, ArrayNode rows, String event, String sessionId) {
+            calls.add(new ArrayList<>(ids));
+            if (rejectSession) {
+                throw new InvalidVaultSessionException("Invalid or expired session ID.");
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * StubAmazonS3 is an in-memory S3 supporting only the calls LambdaHandler and SparkPayloadTransport make
+ */
+class StubAmazonS3 extends AbstractAmazonS3 {
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final AtomicInteger puts = new AtomicInteger();
+    final AtomicInteger deletes = new AtomicInteger();
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName) {
+        return objects.containsKey(objectName);
+    }
+
+    @Override
+    public String getObjectAsString(String bucketName, String key) {
+        return new String(objects.get(key), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+        byte[] content = objects.get(key);
+        if (content == null) {
+            AmazonS3Exception notFound = new AmazonS3Exception("The specified key does not exist.");
+            notFound.setStatusCode(404);
+            throw notFound;
+        }
+        S3Object object = new S3Object();
+        object.setObjectContent(new ByteArrayInputStream(content));
+        return object;
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, String content) {
+        puts.incrementAndGet();
+        objects.put(key, content.getBytes(StandardCharsets.UTF_8));
+        return new PutObjectResult();
+    }
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, InputStream input, ObjectMetadata metadata) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        try {
+            while ((read = input.read(buffer)) > 0) {
+                content.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new AmazonS3Exception(e.getMessage());
+        }
+        puts.incrementAndGet();
+        objects.put(key, content.toByteArray());
+        return new PutObjectResult();
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        deletes.incrementAndGet();
+        objects.remove(key);
+    }
+}
@@ -0,0 +1,59 @@
+package com.veeva.vault;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/*
+ * StubAmazonSQSAsync records every SendMessageBatch call and accepts each entry, except bodies matching rejectBody,
+ * which are reported as sender faults
+ */
+class StubAmazonSQSAsync extends AbstractAmazonSQSAsync {
+    final List<List<SendMessageBatchRequestEntry>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final Predicate<String> rejectBody;
+
+    StubAmazonSQSAsync() {
+        this(body -> false);
+    }
+
+    StubAmazonSQSAsync(Predicate<String> rejectBody) {
+        this.rejectBody = rejectBody;
+    }
+
+    @Override
+    public Future<SendMessageBatchResult> sendMessageBatchAsync(SendMessageBatchRequest request) {
+        batches.add(new ArrayList<>(request.getEntries()));
+        SendMessageBatchResult result = new SendMessageBatchResult();
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+            if (rejectBody.test(entry.getMessageBody())) {
+                failed.add(new BatchResultErrorEntry().withId(entry.getId()).withCode("InvalidMessageContents")
+                        .withMessage("Rejected").withSenderFault(true));
+            } else {
+                successful.add(new SendMessageBatchResultEntry().withId(entry.getId()).withMessageId(entry.getId()));
+            }
+        }
+        return CompletableFuture.completedFuture(result.withSuccessful(successful).withFailed(failed));
+    }
+
+    List<Integer> batchSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        synchronized (batches) {
+            for (List<SendMessageBatchRequestEntry> batch : batches) {
+                sizes.add(batch.size());
+            }
+        }
+        return sizes;
+    }
+}
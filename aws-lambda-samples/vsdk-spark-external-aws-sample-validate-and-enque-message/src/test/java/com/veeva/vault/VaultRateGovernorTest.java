@@ -0,0 +1,140 @@
+package com.veeva.vault;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VaultRateGovernorTest {
+    private static final String LIMIT_EXCEEDED = "{\"responseStatus\":\"FAILURE\",\"errors\":[{\"type\":\"API_LIMIT_EXCEEDED\"}]}";
+
+    private MockWebServer vault;
+
+    @BeforeEach
+    void startVault() throws IOException {
+        vault = new MockWebServer();
+        vault.start();
+    }
+
+    @AfterEach
+    void stopVault() throws IOException {
+        vault.shutdown();
+    }
+
+    @Test
+    void capsRetryAfter() {
+        assertEquals(2000, VaultRateGovernor.backoffMillis(0, "2"));
+        assertEquals(8000, VaultRateGovernor.backoffMillis(0, "3600"));
+        assertEquals(0, VaultRateGovernor.backoffMillis(0, "-5"));
+        long computed = VaultRateGovernor.backoffMillis(1, "Wed, 21 Oct 2026 07:28:00 GMT");
+        assertTrue(computed >= 250 && computed <= 500, "backoff " + computed);
+        assertTrue(VaultRateGovernor.backoffMillis(30, null) <= 8000);
+    }
+
+    @Test
+    void retriesCallsRejectedByTheLimit() throws IOException {
+        vault.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+        vault.enqueue(new MockResponse().setBody("{\"responseStatus\":\"SUCCESS\"}"));
+        OkHttpClient client = client(new VaultRateGovernor(10, 300, 1, TimeUnit.SECONDS, 3));
+
+        try (Response response = call(client)) {
+            assertEquals(200, response.code());
+        }
+        assertEquals(2, vault.getRequestCount());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            vault.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0").setBody(LIMIT_EXCEEDED));
+        }
+        OkHttpClient client = client(new VaultRateGovernor(10, 300, 1, TimeUnit.SECONDS, 2));
+
+        try (Response response = call(client)) {
+            assertEquals(429, response.code());
+        }
+        assertEquals(3, vault.getRequestCount());
+    }
+
+    @Test
+    void sendsCallsWhileBudgetIsLeftAndFailsThemOnceItIsSpent() throws IOException {
+        // Vault reports a falling budget: 15 calls left of 100, 10 of them held back by the cutoff
+        for (int remaining = 15; remaining >= 10; remaining--) {
+            vault.enqueue(limitResponse(remaining));
+        }
+        VaultRateGovernor governor = new VaultRateGovernor(10, 300, 1, TimeUnit.SECONDS, 3);
+        OkHttpClient client = client(governor);
+
+        for (int i = 0; i < 6; i++) {
+            try (Response response = call(client)) {
+                assertEquals(200, response.code());
+            }
+        }
+        assertEquals(10, governor.getBurstLimitRemaining());
+
+        // The budget is spent until the window ends, far beyond maxWait: the call fails without reaching Vault
+        InvocationMetrics metrics = InvocationMetrics.begin();
+        long start = System.nanoTime();
+        try (Response response = call(client)) {
+            assertEquals(429, response.code());
+            assertEquals(VaultRateGovernor.THROTTLED_MESSAGE, response.message());
+            assertTrue(Long.parseLong(response.header("Retry-After")) > 1);
+            assertTrue(response.body().string().contains("API_LIMIT_EXCEEDED"));
+        } finally {
+            metrics.unbind();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(6, vault.getRequestCount());
+        assertTrue(metrics.toEmf(0).contains("\"VaultThrottledCalls\":1.0"));
+    }
+
+    @Test
+    void spacesCallsThatFitWithinMaxWait() throws IOException {
+        // A 2 second window with a budget of 2 refills a token every second; the first response fills the bucket,
+        // the next two calls spend it and the fourth waits about a second for a token
+        for (int i = 0; i < 4; i++) {
+            vault.enqueue(limitResponse(3, 3));
+        }
+        OkHttpClient client = client(new VaultRateGovernor(1, 2, 5, TimeUnit.SECONDS, 0));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            try (Response response = call(client)) {
+                assertEquals(200, response.code());
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(4, vault.getRequestCount());
+        assertTrue(elapsedMillis >= 800 && elapsedMillis < 5000, "elapsed " + elapsedMillis + " ms");
+    }
+
+    private MockResponse limitResponse(int remaining) {
+        return limitResponse(100, remaining);
+    }
+
+    private static MockResponse limitResponse(int limit, int remaining) {
+        return new MockResponse()
+                .setHeader(VaultRateGovernor.BURST_LIMIT_HEADER, limit)
+                .setHeader(VaultRateGovernor.BURST_LIMIT_REMAINING_HEADER, remaining)
+                .setHeader(VaultRateGovernor.DAILY_LIMIT_REMAINING_HEADER, 100000)
+                .setBody("{\"responseStatus\":\"SUCCESS\"}");
+    }
+
+    private Response call(OkHttpClient client) throws IOException {
+        return client.newCall(new Request.Builder().url(vault.url("/api/v21.1/query")).build()).execute();
+    }
+
+    private static OkHttpClient client(VaultRateGovernor governor) {
+        return new OkHttpClient.Builder().addInterceptor(governor).build();
+    }
+}
@@ -0,0 +1,90 @@
+"""
+Regenerates src/test/resources/loan-quote-golden.json from generateLoanApprovalQuotes in
+vsdkSparkSampleProcessMessage/lambda_function.py, the reference LoanQuoteGenerator is checked against.
+
+Usage, from the module directory:
+    PYTHONDONTWRITEBYTECODE=1 python3 src/test/python/generate_loan_quote_golden.py
+"""
+import datetime
+import json
+import os
+import sys
+import types
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+MODULE = os.path.join(HERE, '..', '..', '..')
+sys.path.insert(0, os.path.join(MODULE, '..', 'vsdkSparkSampleProcessMessage'))
+
+# The quotes only depend on the rows, the event and the clock; stub the rest of the Lambda environment
+for name in ('VAULT_REST_API_BASE_URL', 'VAULT_USER', 'VAULT_PASSWORD', 'CLIENT_ID',
+             'VAULT_API_BURST_LIMIT_CUTOFF', 'VAULT_VQL_PAGE_LIMIT'):
+    os.environ.setdefault(name, '')
+sys.modules.setdefault('boto3', types.ModuleType('boto3'))
+
+import lambda_function  # noqa: E402
+
+NOW = datetime.datetime(2026, 10, 16, 9, 5, 3, 250000)
+
+
+class FixedDateTime(datetime.datetime):
+    @classmethod
+    def now(cls, tz=None):
+        return NOW
+
+
+lambda_function.datetime = types.SimpleNamespace(datetime=FixedDateTime)
+lambda_function.print = lambda *args, **kwargs: None
+
+
+def row(id, amount, period, quotes=None, forename='Ann', surname='Smith', item='Car'):
+    return {'id': id, 'name__v': forename, 'surname__c': surname, 'item__c': item, 'loan_amount__c': amount,
+            'loan_period_months__c': [period], 'number_of_quotes__c': quotes}
+
+
+ROWS = [
+    # Whole hundreds, then amounts the yearly flooring to hundreds rounds down
+    row('V5K000000000001', 10000, '12_months__c'),
+    row('V5K000000000002', 12345, '24_months__c'),
+    row('V5K000000000003', 12399, '36_months__c'),
+    row('V5K000000000004', 99, '24_months__c'),
+    row('V5K000000000005', 199, '12_months__c'),
+    # Periods under a year add no interest; part years are not stepped
+    row('V5K000000000006', 5000, '06_months__c'),
+    row('V5K000000000008', 7777, '18_months__c'),
+    row('V5K000000000009', 7777, '11_months__c'),
+    row('V5K000000000010', 54321, '60_months__c'),
+    row('V5K000000000011', 54321, '96_months__c'),
+    row('V5K000000000012', 1, '99_months__c'),
+    # Fractional amounts take the float path
+    row('V5K000000000013', 12345.67, '24_months__c'),
+    row('V5K000000000014', 1000.5, '12_months__c'),
+    row('V5K000000000015', 12345.0, '36_months__c'),
+    row('V5K000000000016', 0.99, '12_months__c'),
+    # Monthly payments that do not divide the total
+    row('V5K000000000017', 1000, '36_months__c'),
+    row('V5K000000000018', 3333, '48_months__c'),
+    # Approval limit
+    row('V5K000000000019', 100000, '24_months__c'),
+    row('V5K000000000020', 100000.01, '24_months__c'),
+    row('V5K000000000021', 100001, '72_months__c'),
+    row('V5K000000000022', 9007199254740000, '24_months__c'),
+    # Quote counts
+    row('V5K000000000023', 2500, '12_months__c', quotes=0),
+    row('V5K000000000024', 2500, '12_months__c', quotes=3),
+    # Reference numbers
+    row('V5K000000000025', 2500, '12_months__c', forename="o'neil", surname="O'Brien", item='TV'),
+    row('V5K000000000026', 2500, '12_months__c', forename='élodie', surname='Straße', item='Motorbike'),
+    row('V5K000000000027', 2500, '12_months__c', surname='', item=''),
+]
+
+EVENTS = ['Loan approval', 'Loan re-quote']
+
+golden = {
+    'now': NOW.replace(microsecond=0).isoformat(),
+    'rows': ROWS,
+    'quotes': {event: lambda_function.generateLoanApprovalQuotes(ROWS, event) for event in EVENTS},
+}
+
+with open(os.path.join(MODULE, 'src', 'test', 'resources', 'loan-quote-golden.json'), 'w') as out:
+    json.dump(golden, out, indent=2)
+    out.write('\n')
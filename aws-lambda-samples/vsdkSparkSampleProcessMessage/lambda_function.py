@@ -17,6 +17,7 @@ def lambda_handler(event, context):
 
     # Variables
     batchIds = []
+    inlineRows = []
     vaultObject = 'vsdk_loan_approval__c'
 
     # Retrive record from SQS queue entry
@@ -36,7 +37,15 @@ def lambda_handler(event, context):
     # Items
     messageItems = messagecontents.get('items')
     for messageItem in messageItems:
-        
+
+        # Enriched items are JSON objects carrying the loan fields of the record,
+        # in the shape of the VQL query rows; plain items are the Vault Id only
+        if messageItem.startswith('{'):
+            inlineRow = inlineQueryRow(messageItem)
+            print("vaultId: " + inlineRow['id'] + " (inline)")
+            inlineRows.append(inlineRow)
+            continue
+
         vaultId = messageItem
         print("vaultId: " + vaultId)
 
@@ -46,18 +55,33 @@ def lambda_handler(event, context):
         
     # Update the specified object record via the Vault REST API, to set the 
     # AWS Finance Quote fields for all the items in the batch
-    processedStatus =  vaultUpdateObjectAWSFinanceDetails(vaultObject, batchIds, vaultEvent, vaultSessionId)
+    processedStatus =  vaultUpdateObjectAWSFinanceDetails(vaultObject, batchIds, vaultEvent, vaultSessionId, inlineRows)
 
     return {
         'statusCode': 200,
         'body': "Function processed"
     }
     
+def inlineQueryRow(messageItem):
+    """
+    Read an enriched message item into a row shaped like those of the VQL query;
+    the trigger leaves out the optional fields the record has no value for
+
+    :param messageItem: the JSON object of the item, as a string
+
+    :return: row: the record fields keyed by field name
+    """
+    row = json.loads(messageItem)
+    row.setdefault('surname__c', '')
+    row.setdefault('item__c', '')
+    row.setdefault('number_of_quotes__c', None)
+    return row
+
 #
 # Vault Business Logic
 #
 
-def vaultUpdateObjectAWSFinanceDetails(vaultObject, batchIds, vaultEvent, currVaultSessionId):
+def vaultUpdateObjectAWSFinanceDetails(vaultObject, batchIds, vaultEvent, currVaultSessionId, inlineRows=None):
     """
     Update the AWS Finance Quote Detail fields, where they haven't already been 
     populated.
@@ -66,6 +90,7 @@ def vaultUpdateObjectAWSFinanceDetails(vaultObject, batchIds, vaultEvent, currVa
     :param batchIds: array of Vault Objects to be processed
     :param vaultEvent: event in Vault the message was created from
     :param currVaultSessionId: the Vault sessionId provided in the Spark message
+    :param inlineRows: the records sent inline as enriched items, which are not queried
 
     :return: processedStatus: Whether the Vault call was successful
     """
@@ -77,6 +102,14 @@ def vaultUpdateObjectAWSFinanceDetails(vaultObject, batchIds, vaultEvent, currVa
         sessionId = currVaultSessionId
     print("sessionId: " + str(sessionId))
 
+    # The records sent inline already carry the fields the quotes need, so skip the query for them
+    processedStatus = vr.VAULT_REST_API_SUCCESS
+    if inlineRows:
+        hirePurchaseQuotes = generateLoanApprovalQuotes(inlineRows, vaultEvent)
+        processedStatus = vaultSetObjectAWSFinanceDetails(hirePurchaseQuotes, vaultObject, sessionId)
+    if not batchIds or processedStatus in (vr.VAULT_REST_API_BURST_BREACH, vr.VAULT_REST_API_FAILURE):
+        return processedStatus
+
     # Retreive the records for the specified batches
     vqlQuery = "SELECT id, name__v, surname__c, item__c, loan_amount__c, loan_period_months__c, number_of_quotes__c "
     vqlQuery = vqlQuery + " FROM " + vaultObject
@@ -0,0 +1,87 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.LogService;
+import com.veeva.vault.sdk.api.core.RollbackException;
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.data.RecordService;
+
+import java.util.List;
+
+/**
+ * vSDK SPARK AWS Queue Sample Record Status Writer
+ *
+ * Collects the approval status of every record queued in one trigger or action execution
+ * and saves them together at the end, in as few batchSaveRecords calls as the SDK allows.
+ */
+@UserDefinedClassInfo
+public class RecordStatusWriter {
+
+    // batchSaveRecords accepts at most 500 records per call
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private static final String STATUS_FIELD = "approval_status__c";
+
+    private final String objectName;
+    private final RecordService recordService;
+    private final LogService logService;
+    // The picklist values are shared by every record that gets the same status
+    private final List<String> pendingStatus = VaultCollections.asList("pending_loan_approval__c");
+    private final List<String> failedStatus = VaultCollections.asList("send_for_approval_failed__c");
+    private final List<Record> records = VaultCollections.newList();
+
+    /**
+     * @param objectName the object of the records whose status is written
+     */
+    public RecordStatusWriter(String objectName) {
+        this.objectName = objectName;
+        this.recordService = ServiceLocator.locate(RecordService.class);
+        this.logService = ServiceLocator.locate(LogService.class);
+    }
+
+    /**
+     * Records the outcome of a queued message for each of its record ids.
+     *
+     * @param vaultIds the ids sent in the message
+     * @param queued whether the queue accepted the message
+     */
+    public void add(List<String> vaultIds, boolean queued) {
+        List<String> status = queued ? pendingStatus : failedStatus;
+        for (String vaultId : vaultIds) {
+            Record recordUpdate = recordService.newRecordWithId(objectName, vaultId);
+            recordUpdate.setValue(STATUS_FIELD, status);
+            records.add(recordUpdate);
+        }
+    }
+
+    /**
+     * Saves the collected statuses in batches of {@link #MAX_BATCH_SIZE}.
+     * If any record fails to save, every failure is logged and one 'OPERATION_NOT_ALLOWED' error
+     * listing all failed records is raised through the Vault UI.
+     */
+    public void save() {
+        List<String> failures = VaultCollections.newList();
+        for (int offset = 0; offset < records.size(); offset += MAX_BATCH_SIZE) {
+            List<Record> batch = records.subList(offset, Math.min(offset + MAX_BATCH_SIZE, records.size()));
+            recordService.batchSaveRecords(batch)
+                    .onErrors(batchOperationErrors -> batchOperationErrors.forEach(error -> {
+                        // Partial records only carry their id, so the id identifies the failed record
+                        Record failed = batch.get(error.getInputPosition());
+                        String failure = "'" + failed.getValue("id", ValueType.STRING) + "' because of '" +
+                                error.getError().getMessage() + "'";
+                        logService.error("Unable to update '" + objectName + "' record " + failure);
+                        failures.add(failure);
+                    }))
+                    .execute();
+        }
+        records.clear();
+
+        if (!failures.isEmpty()) {
+            throw new RollbackException("OPERATION_NOT_ALLOWED", "Unable to update " + failures.size() + " '" +
+                    objectName + "' record(s): " + String.join(", ", failures) + ".");
+        }
+    }
+}
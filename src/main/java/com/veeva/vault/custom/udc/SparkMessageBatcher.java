@@ -0,0 +1,100 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * vSDK SPARK AWS Queue Sample Message Batcher
+ *
+ * Groups record ids, or the enriched items built from them, into Spark message item lists for the trigger and the
+ * record action. A batch is handed to the sender only when the next item would take it over the max items per message
+ * or the max message bytes, so every queued message is as full as the limits allow.
+ */
+@UserDefinedClassInfo
+public class SparkMessageBatcher {
+
+    // Bytes reserved for the rest of the message body: the attributes, the session id and the JSON structure
+    public static final int ENVELOPE_BYTES = 1024;
+
+    private final int maxItems;
+    private final int maxItemBytes;
+    private final BiConsumer<List<String>, List<String>> sender;
+
+    private List<String> ids = VaultCollections.newList();
+    private List<String> items = VaultCollections.newList();
+    private int itemBytes = 0;
+    private int messageCount = 0;
+
+    /**
+     * @param maxItems the largest number of items in one message
+     * @param maxMessageBytes the largest message body in bytes, including {@link #ENVELOPE_BYTES}
+     * @param sender receives the record ids and the message items of each full batch, in the same order; the lists
+     *               are not reused after they are handed over
+     */
+    public SparkMessageBatcher(int maxItems, int maxMessageBytes, BiConsumer<List<String>, List<String>> sender) {
+        this.maxItems = maxItems;
+        this.maxItemBytes = maxMessageBytes - ENVELOPE_BYTES;
+        this.sender = sender;
+    }
+
+    /**
+     * Adds the message item of a record to the current batch, sending the batch first if the item does not fit in it.
+     * An item that is larger than the whole item budget is sent on its own.
+     *
+     * @param id the record id, handed to the sender alongside the item
+     * @param item the message item, e.g. the id itself or an enriched item from {@link SparkMessageItems}
+     */
+    public void add(String id, String item) {
+        int size = itemSize(item);
+        if (!items.isEmpty() && (items.size() >= maxItems || itemBytes + size > maxItemBytes)) {
+            send();
+        }
+        ids.add(id);
+        items.add(item);
+        itemBytes += size;
+    }
+
+    /**
+     * Sends the items that have not been sent yet.
+     *
+     * @return the number of messages sent by this batcher
+     */
+    public int flush() {
+        if (!items.isEmpty()) {
+            send();
+        }
+        return messageCount;
+    }
+
+    private void send() {
+        List<String> batchIds = ids;
+        List<String> batch = items;
+        ids = VaultCollections.newList();
+        items = VaultCollections.newList();
+        itemBytes = 0;
+        messageCount++;
+        sender.accept(batchIds, batch);
+    }
+
+    // An item is written as a JSON string followed by a separator: "<item>",
+    private static int itemSize(String item) {
+        int size = 3;
+        for (int i = 0; i < item.length(); i++) {
+            char c = item.charAt(i);
+            if (c < 0x80) {
+                size += (c == '"' || c == '\\') ? 2 : 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,77 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.json.JsonArrayBuilder;
+import com.veeva.vault.sdk.api.json.JsonObjectBuilder;
+import com.veeva.vault.sdk.api.json.JsonService;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * vSDK SPARK AWS Queue Sample Message Items
+ *
+ * Turns a loan approval record into a Spark message item for {@link SparkQueueDispatcher}.
+ * A plain item is the record id, and the AWS consumer queries the loan fields back from Vault.
+ * An enriched item is a JSON object holding the fields the consumer quotes on, in the shape of that query's
+ * rows, so the consumer can skip the query. A record that does not carry every field needed for a quote,
+ * e.g. one passed to a record action with only its id, is still sent as its id and queried as before.
+ * Both the AWS SqsMessageHandler and the Python vsdkSparkSampleProcessMessage consumer read both forms; whether a
+ * queue gets enriched items is set per route with {@code enriched_items__c}.
+ */
+@UserDefinedClassInfo
+public class SparkMessageItems {
+
+    private final JsonService jsonService;
+
+    public SparkMessageItems() {
+        this.jsonService = ServiceLocator.locate(JsonService.class);
+    }
+
+    /**
+     * Returns the message item for a record: its id, or when enriched the JSON object of its loan fields.
+     * The item's size is counted by {@link SparkMessageBatcher}, so enriched messages hold fewer items.
+     *
+     * @param record a record with its field values, e.g. {@code RecordChange.getNew()}
+     * @param enriched whether to send the loan fields
+     */
+    public String item(Record record, boolean enriched) {
+        String id = record.getValue("id", ValueType.STRING);
+        if (!enriched) {
+            return id;
+        }
+
+        String name = record.getValue("name__v", ValueType.STRING);
+        BigDecimal loanAmount = record.getValue("loan_amount__c", ValueType.NUMBER);
+        List<String> loanPeriod = record.getValue("loan_period_months__c", ValueType.PICKLIST_VALUES);
+        if (name == null || name.isEmpty() || loanAmount == null || loanPeriod == null || loanPeriod.isEmpty()) {
+            return id;
+        }
+
+        JsonArrayBuilder period = jsonService.newJsonArrayBuilder();
+        for (String value : loanPeriod) {
+            period.add(value);
+        }
+        JsonObjectBuilder item = jsonService.newJsonObjectBuilder()
+                .setValue("id", id)
+                .setValue("name__v", name)
+                .setValue("loan_amount__c", loanAmount)
+                .setValue("loan_period_months__c", period.build());
+        setIfPresent(item, "surname__c", record.getValue("surname__c", ValueType.STRING));
+        setIfPresent(item, "item__c", record.getValue("item__c", ValueType.STRING));
+        BigDecimal numberOfQuotes = record.getValue("number_of_quotes__c", ValueType.NUMBER);
+        if (numberOfQuotes != null) {
+            item.setValue("number_of_quotes__c", numberOfQuotes);
+        }
+        return item.build().asString();
+    }
+
+    private static void setIfPresent(JsonObjectBuilder item, String field, String value) {
+        if (value != null) {
+            item.setValue(field, value);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.LogService;
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.UserDefinedClassInfo;
+import com.veeva.vault.sdk.api.core.ValueType;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.query.QueryExecutionRequest;
+import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.queue.Message;
+import com.veeva.vault.sdk.api.queue.PutMessageResponse;
+import com.veeva.vault.sdk.api.queue.QueueService;
+
+import java.util.List;
+
+/**
+ * vSDK SPARK AWS Queue Sample Queue Dispatcher
+ *
+ * Spreads the Spark messages of a trigger or record action across a set of queue/connection pairs (shards),
+ * so that no single Spark queue and downstream path carries every batch.
+ * The shards of an object are the active {@code vsdk_spark_queue_route__c} records whose {@code object_name__c} is the
+ * object, in name order; each gives a {@code queue_name__c}, a {@code connection_name__c} and a {@code routing__c}:
+ * Every record id is hashed to a shard, and that shard's routing decides where the record goes:
+ * <ul>
+ *     <li>{@code record_id_hash__c} keeps the record on that shard, so messages about a record keep their order</li>
+ *     <li>{@code round_robin__c} adds the record to a message shared by the round-robin shards, and each full message
+ *     goes to the next of them</li>
+ * </ul>
+ * A route with {@code enriched_items__c} set gets enriched message items (see {@link SparkMessageItems}); since the
+ * round-robin shards share their messages, those are only enriched if every round-robin route has it set.
+ * Without an active route, every message goes to the default queue and connection with plain items.
+ * When the dispatcher is flushed, the number of messages each shard accepted and failed is logged.
+ */
+@UserDefinedClassInfo
+public class SparkQueueDispatcher {
+
+    private static final String ROUTE_OBJECT = "vsdk_spark_queue_route__c";
+    private static final String RECORD_ID_HASH = "record_id_hash__c";
+    private static final String ENRICHED_ITEMS = "enriched_items__c";
+
+    private final String objectName;
+    private final String recordEvent;
+    private final RecordStatusWriter statusWriter;
+    private final SparkMessageItems messageItems;
+    private final QueueService queueService;
+    private final LogService logService;
+
+    // Per shard
+    private final List<String> queueNames = VaultCollections.newList();
+    private final List<String> connectionNames = VaultCollections.newList();
+    private final List<Boolean> hashRecordIds = VaultCollections.newList();
+    private final List<Boolean> enrichedItems = VaultCollections.newList();
+    private final List<Integer> shardBatchers = VaultCollections.newList();
+    private final int[] queued;
+    private final int[] failed;
+
+    // Per batcher: one for each hashed shard, and one shared by the round-robin shards
+    private final List<SparkMessageBatcher> batchers = VaultCollections.newList();
+    private final List<Boolean> batcherEnrichedItems = VaultCollections.newList();
+    private final List<Integer> roundRobinShards = VaultCollections.newList();
+    private int nextShard = -1;
+
+    /**
+     * @param objectName the object of the records, whose routes are read
+     * @param recordEvent the event sent in the message attributes
+     * @param defaultQueueName the queue used when the object has no active route
+     * @param defaultConnectionName the connection used when the object has no active route
+     * @param maxItems the largest number of items in one message
+     * @param maxMessageBytes the largest message body in bytes
+     * @param statusWriter collects the outcome of every queued record
+     */
+    public SparkQueueDispatcher(String objectName, String recordEvent, String defaultQueueName,
+                                String defaultConnectionName, int maxItems, int maxMessageBytes,
+                                RecordStatusWriter statusWriter) {
+        this.objectName = objectName;
+        this.recordEvent = recordEvent;
+        this.statusWriter = statusWriter;
+        this.messageItems = new SparkMessageItems();
+        this.queueService = ServiceLocator.locate(QueueService.class);
+        this.logService = ServiceLocator.locate(LogService.class);
+
+        loadRoutes();
+        if (queueNames.isEmpty()) {
+            queueNames.add(defaultQueueName);
+            connectionNames.add(defaultConnectionName);
+            hashRecordIds.add(false);
+            enrichedItems.add(false);
+        }
+        queued = new int[queueNames.size()];
+        failed = new int[queueNames.size()];
+
+        boolean roundRobinEnrichedItems = true;
+        for (int shard = 0; shard < queueNames.size(); shard++) {
+            if (!hashRecordIds.get(shard)) {
+                roundRobinShards.add(shard);
+                roundRobinEnrichedItems = roundRobinEnrichedItems && enrichedItems.get(shard);
+            }
+        }
+        // A hashed shard fills its own batcher; the round-robin shards fill one batcher and take turns per message
+        int roundRobinBatcher = -1;
+        for (int shard = 0; shard < queueNames.size(); shard++) {
+            if (hashRecordIds.get(shard)) {
+                int hashedShard = shard;
+                shardBatchers.add(batchers.size());
+                batchers.add(new SparkMessageBatcher(maxItems, maxMessageBytes,
+                        (vaultIds, items) -> send(hashedShard, vaultIds, items)));
+                batcherEnrichedItems.add(enrichedItems.get(shard));
+            } else {
+                if (roundRobinBatcher < 0) {
+                    roundRobinBatcher = batchers.size();
+                    batchers.add(new SparkMessageBatcher(maxItems, maxMessageBytes,
+                            (vaultIds, items) -> send(nextShard(vaultIds), vaultIds, items)));
+                    batcherEnrichedItems.add(roundRobinEnrichedItems);
+                }
+                shardBatchers.add(roundRobinBatcher);
+            }
+        }
+    }
+
+    /**
+     * Adds the message item of a record, sending a full message to its shard first if the item does not fit.
+     * The item is the record id, or its loan fields when the shard's route asks for enriched items.
+     *
+     * @param record a record with its field values, e.g. {@code RecordChange.getNew()}
+     */
+    public void add(Record record) {
+        String id = record.getValue("id", ValueType.STRING);
+        int batcher = shardBatchers.get(Math.floorMod(id.hashCode(), queueNames.size()));
+        batchers.get(batcher).add(id, messageItems.item(record, batcherEnrichedItems.get(batcher)));
+    }
+
+    /**
+     * Sends the items that have not been sent yet, then logs the messages queued and failed per shard.
+     *
+     * @return the number of messages sent by this dispatcher
+     */
+    public int flush() {
+        int messageCount = 0;
+        for (SparkMessageBatcher batcher : batchers) {
+            messageCount += batcher.flush();
+        }
+        for (int shard = 0; shard < queueNames.size(); shard++) {
+            if (queued[shard] > 0 || failed[shard] > 0) {
+                logService.info("Shard " + shard + " (" + queueNames.get(shard) + ", " + connectionNames.get(shard) +
+                        "): " + queued[shard] + " message(s) queued, " + failed[shard] + " failed");
+                queued[shard] = 0;
+                failed[shard] = 0;
+            }
+        }
+        return messageCount;
+    }
+
+    private void loadRoutes() {
+        QueryService queryService = ServiceLocator.locate(QueryService.class);
+        QueryExecutionRequest request = queryService.newQueryExecutionRequestBuilder()
+                .withQueryString("SELECT name__v, queue_name__c, connection_name__c, routing__c, " + ENRICHED_ITEMS +
+                        " FROM " + ROUTE_OBJECT +
+                        " WHERE object_name__c = '" + objectName + "' AND status__v = 'active__v' ORDER BY name__v ASC")
+                .build();
+        queryService.query(request)
+                .onSuccess(response -> response.streamResults().forEach(route -> {
+                    String queueName = route.getValue("queue_name__c", ValueType.STRING);
+                    String connectionName = route.getValue("connection_name__c", ValueType.STRING);
+                    if (queueName == null || connectionName == null) {
+                        logService.error("Ignoring route '" + route.getValue("name__v", ValueType.STRING) +
+                                "' without a queue or connection");
+                        return;
+                    }
+                    queueNames.add(queueName);
+                    connectionNames.add(connectionName);
+                    enrichedItems.add(Boolean.TRUE.equals(route.getValue(ENRICHED_ITEMS, ValueType.BOOLEAN)));
+                    List<String> routing = route.getValue("routing__c", ValueType.PICKLIST_VALUES);
+                    hashRecordIds.add(routing != null && routing.contains(RECORD_ID_HASH));
+                }))
+                .onError(queryOperationError -> logService.error("Unable to read the routes of '" + objectName +
+                        "', using the default queue: " + queryOperationError.getMessage()))
+                .execute();
+    }
+
+    // The rotation starts from the first record id, so executions with a single message do not all use the same shard
+    private int nextShard(List<String> vaultIds) {
+        if (nextShard < 0) {
+            nextShard = Math.floorMod(vaultIds.get(0).hashCode(), roundRobinShards.size());
+        }
+        int shard = roundRobinShards.get(nextShard);
+        nextShard = (nextShard + 1) % roundRobinShards.size();
+        return shard;
+    }
+
+    // Move to the Spark Queue AFTER the record has successfully been inserted.
+    private void send(int shard, List<String> vaultIds, List<String> messageItems) {
+        Message message = queueService.newMessage(queueNames.get(shard))
+                .setAttribute("object", objectName)
+                .setAttribute("event", recordEvent)
+                .setAttributeWithToken("sessionId", "${Session.SessionId}")
+                .setMessageItems(messageItems)
+                .appendPath(connectionNames.get(shard), "/message");
+        PutMessageResponse response = queueService.putMessage(message);
+
+        //Check that the message queue successfully processed the message.
+        //If it's successful, change the `approval_status__c` flag to 'pending_loan_approval__c'.
+        //If there is an error, change the `approval_status__c` flag to 'send_for_approval_failed__c'.
+        //The status changes of all messages are saved together once every message has been queued.
+        if (response.getError() != null) {
+            logService.info("ERROR Queuing Failed on " + queueNames.get(shard) + ": " +
+                    response.getError().getMessage());
+            failed[shard]++;
+        } else {
+            queued[shard]++;
+        }
+        statusWriter.add(vaultIds, response.getError() == null);
+    }
+}
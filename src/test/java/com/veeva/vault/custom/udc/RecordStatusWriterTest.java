@@ -0,0 +1,200 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.BatchOperation;
+import com.veeva.vault.sdk.api.core.BatchOperationError;
+import com.veeva.vault.sdk.api.core.LogService;
+import com.veeva.vault.sdk.api.core.RollbackException;
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.data.PositionalRecordId;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.data.RecordService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecordStatusWriterTest {
+    private static final String OBJECT_NAME = "vsdk_loan_approval__c";
+    private static final List<String> PENDING = Collections.singletonList("pending_loan_approval__c");
+    private static final List<String> FAILED = Collections.singletonList("send_for_approval_failed__c");
+
+    // The Vault services only exist inside Vault, so they are mocks and VaultCollections lists are plain ArrayLists
+    private MockedStatic<VaultCollections> vaultCollections;
+    private MockedStatic<ServiceLocator> serviceLocator;
+    private final Map<Record, Map<String, Object>> recordFields = new IdentityHashMap<>();
+    // The records of each batchSaveRecords call, and the input positions each call reports as failed
+    private final List<List<Map<String, Object>>> saves = new ArrayList<>();
+    private final Map<Integer, List<Integer>> failedPositions = new HashMap<>();
+    private final LogService logService = mock(LogService.class);
+
+    @BeforeEach
+    void mockVault() {
+        vaultCollections = mockStatic(VaultCollections.class);
+        vaultCollections.when(VaultCollections::newList).thenAnswer(invocation -> new ArrayList<>());
+        vaultCollections.when(() -> VaultCollections.asList(anyString()))
+                .thenAnswer(invocation -> new ArrayList<>(Arrays.asList(invocation.getArguments())));
+        RecordService recordService = recordService();
+        serviceLocator = mockStatic(ServiceLocator.class);
+        serviceLocator.when(() -> ServiceLocator.locate(RecordService.class)).thenReturn(recordService);
+        serviceLocator.when(() -> ServiceLocator.locate(LogService.class)).thenReturn(logService);
+    }
+
+    @AfterEach
+    void closeVault() {
+        serviceLocator.close();
+        vaultCollections.close();
+    }
+
+    @Test
+    void savesPendingForQueuedRecordsAndFailedForTheRest() {
+        RecordStatusWriter writer = new RecordStatusWriter(OBJECT_NAME);
+        writer.add(Arrays.asList("V5K1", "V5K2"), true);
+        writer.add(Collections.singletonList("V5K3"), false);
+
+        writer.save();
+
+        assertEquals(1, saves.size());
+        List<Map<String, Object>> saved = saves.get(0);
+        assertEquals(Arrays.asList("V5K1", "V5K2", "V5K3"), ids(saved));
+        assertEquals(PENDING, saved.get(0).get("approval_status__c"));
+        assertEquals(PENDING, saved.get(1).get("approval_status__c"));
+        assertEquals(FAILED, saved.get(2).get("approval_status__c"));
+        verify(logService, never()).error(anyString());
+    }
+
+    @Test
+    void savesEveryMessageOfAnExecutionInOneCall() {
+        RecordStatusWriter writer = new RecordStatusWriter(OBJECT_NAME);
+        for (int message = 0; message < 5; message++) {
+            writer.add(ids(message * 100, 100), message % 2 == 0);
+        }
+
+        writer.save();
+
+        assertEquals(1, saves.size());
+        assertEquals(ids(0, 500), ids(saves.get(0)));
+    }
+
+    @Test
+    void splitsTheSaveAtTheBatchLimit() {
+        RecordStatusWriter writer = new RecordStatusWriter(OBJECT_NAME);
+        writer.add(ids(0, 400), true);
+        writer.add(ids(400, 101), true);
+
+        writer.save();
+
+        assertEquals(2, saves.size());
+        assertEquals(ids(0, RecordStatusWriter.MAX_BATCH_SIZE), ids(saves.get(0)));
+        assertEquals(ids(500, 1), ids(saves.get(1)));
+    }
+
+    @Test
+    void savesNothingTwice() {
+        RecordStatusWriter writer = new RecordStatusWriter(OBJECT_NAME);
+        writer.save();
+        assertTrue(saves.isEmpty());
+
+        writer.add(Collections.singletonList("V5K1"), true);
+        writer.save();
+        writer.save();
+
+        assertEquals(1, saves.size());
+    }
+
+    @Test
+    void logsEachFailedRecordByItsInputPosition() {
+        failedPositions.put(0, Collections.singletonList(1));
+        failedPositions.put(1, Arrays.asList(0, 2));
+        RecordStatusWriter writer = new RecordStatusWriter(OBJECT_NAME);
+        writer.add(ids(0, 503), true);
+
+        assertThrows(RollbackException.class, writer::save);
+
+        assertEquals(2, saves.size());
+        verify(logService).error("Unable to update '" + OBJECT_NAME + "' record '" + id(1) + "' because of 'INVALID_DATA'");
+        verify(logService).error("Unable to update '" + OBJECT_NAME + "' record '" + id(500) + "' because of 'INVALID_DATA'");
+        verify(logService).error("Unable to update '" + OBJECT_NAME + "' record '" + id(502) + "' because of 'INVALID_DATA'");
+    }
+
+    @SuppressWarnings("unchecked")
+    private RecordService recordService() {
+        RecordService recordService = mock(RecordService.class);
+        when(recordService.newRecordWithId(anyString(), anyString())).thenAnswer(invocation -> {
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("id", invocation.getArgument(1));
+            Record record = mock(Record.class);
+            when(record.getValue(anyString(), any())).thenAnswer(value -> fields.get(value.<String>getArgument(0)));
+            doAnswer(value -> fields.put(value.getArgument(0), value.getArgument(1))).when(record).setValue(anyString(), any());
+            recordFields.put(record, fields);
+            return record;
+        });
+        when(recordService.batchSaveRecords(any())).thenAnswer(save -> {
+            int call = saves.size();
+            List<Map<String, Object>> saved = new ArrayList<>();
+            for (Record record : save.<List<Record>>getArgument(0)) {
+                saved.add(recordFields.get(record));
+            }
+            saves.add(saved);
+            BatchOperation<PositionalRecordId, BatchOperationError> operation = mock(BatchOperation.class, RETURNS_SELF);
+            when(operation.onErrors(any())).thenAnswer(invocation -> {
+                List<BatchOperationError> errors = new ArrayList<>();
+                for (int position : failedPositions.getOrDefault(call, Collections.emptyList())) {
+                    BatchOperationError error = mock(BatchOperationError.class, RETURNS_DEEP_STUBS);
+                    when(error.getInputPosition()).thenReturn(position);
+                    when(error.getError().getMessage()).thenReturn("INVALID_DATA");
+                    errors.add(error);
+                }
+                if (!errors.isEmpty()) {
+                    invocation.<Consumer<List<BatchOperationError>>>getArgument(0).accept(errors);
+                }
+                return operation;
+            });
+            return operation;
+        });
+        return recordService;
+    }
+
+    private static List<String> ids(List<Map<String, Object>> saved) {
+        List<String> ids = new ArrayList<>();
+        for (Map<String, Object> fields : saved) {
+            ids.add((String) fields.get("id"));
+        }
+        return ids;
+    }
+
+    private static List<String> ids(int first, int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            ids.add(id(i));
+        }
+        return ids;
+    }
+
+    private static String id(int i) {
+        return String.format("V5K%012d", i);
+    }
+}
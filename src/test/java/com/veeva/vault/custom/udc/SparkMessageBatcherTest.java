@@ -0,0 +1,148 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mockStatic;
+
+class SparkMessageBatcherTest {
+    private static final int MAX_ITEMS = 500;
+    private static final int MAX_MESSAGE_BYTES = 250 * 1024;
+
+    // VaultCollections is only implemented inside Vault, so its lists are plain ArrayLists here
+    private MockedStatic<VaultCollections> vaultCollections;
+    private final List<List<String>> sentIds = new ArrayList<>();
+    private final List<List<String>> sentItems = new ArrayList<>();
+
+    @BeforeEach
+    void mockVaultCollections() {
+        vaultCollections = mockStatic(VaultCollections.class);
+        vaultCollections.when(VaultCollections::newList).thenAnswer(invocation -> new ArrayList<>());
+    }
+
+    @AfterEach
+    void closeVaultCollections() {
+        vaultCollections.close();
+    }
+
+    @Test
+    void sendsNothingForNoRecords() {
+        assertEquals(0, batch(0));
+        assertTrue(sentItems.isEmpty());
+    }
+
+    @Test
+    void sendsOneMessageForOneRecord() {
+        assertEquals(1, batch(1));
+        assertBatchSizes(1);
+    }
+
+    @Test
+    void sendsOneMessageForExactlyMaxItems() {
+        assertEquals(1, batch(500));
+        assertBatchSizes(500);
+    }
+
+    @Test
+    void startsASecondMessageAfterMaxItems() {
+        assertEquals(2, batch(501));
+        assertBatchSizes(500, 1);
+    }
+
+    @Test
+    void sendsFullMessagesForManyRecords() {
+        assertEquals(10, batch(5000));
+        assertBatchSizes(500, 500, 500, 500, 500, 500, 500, 500, 500, 500);
+    }
+
+    @Test
+    void splitsMessagesAtTheByteLimit() {
+        // 3 bytes of quotes and separator per item, so 4 items of 1021 characters fit in 5 KB less the envelope
+        SparkMessageBatcher batcher = new SparkMessageBatcher(MAX_ITEMS, 4 * 1024 + SparkMessageBatcher.ENVELOPE_BYTES,
+                this::send);
+        for (int i = 0; i < 9; i++) {
+            batcher.add(id(i), repeat('x', 1021));
+        }
+
+        assertEquals(3, batcher.flush());
+        assertBatchSizes(4, 4, 1);
+    }
+
+    @Test
+    void countsMultiByteAndEscapedCharactersInTheByteLimit() {
+        // Each item is 1 + 2 + 3 + 4 + 2 (escaped quote) + 3 = 15 bytes, so 2 fit in 30 bytes but 3 do not
+        SparkMessageBatcher batcher = new SparkMessageBatcher(MAX_ITEMS, 30 + SparkMessageBatcher.ENVELOPE_BYTES,
+                this::send);
+        for (int i = 0; i < 3; i++) {
+            batcher.add(id(i), "a\u00e9\u20ac\ud83d\ude00\"");
+        }
+
+        assertEquals(2, batcher.flush());
+        assertBatchSizes(2, 1);
+    }
+
+    @Test
+    void sendsAnOversizedItemOnItsOwn() {
+        SparkMessageBatcher batcher = new SparkMessageBatcher(MAX_ITEMS, 100 + SparkMessageBatcher.ENVELOPE_BYTES,
+                this::send);
+        batcher.add(id(0), "small");
+        batcher.add(id(1), repeat('x', 500));
+        batcher.add(id(2), "small");
+
+        assertEquals(3, batcher.flush());
+        assertBatchSizes(1, 1, 1);
+    }
+
+    private int batch(int records) {
+        SparkMessageBatcher batcher = new SparkMessageBatcher(MAX_ITEMS, MAX_MESSAGE_BYTES, this::send);
+        for (int i = 0; i < records; i++) {
+            batcher.add(id(i), id(i));
+        }
+        int messages = batcher.flush();
+
+        // Every record is sent once, in order, with its item alongside its id
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < sentIds.size(); i++) {
+            assertEquals(sentIds.get(i), sentItems.get(i));
+            ids.addAll(sentIds.get(i));
+        }
+        assertEquals(records, ids.size());
+        for (int i = 0; i < records; i++) {
+            assertEquals(id(i), ids.get(i));
+        }
+        assertEquals(messages, batcher.flush());
+        return messages;
+    }
+
+    private void send(List<String> ids, List<String> items) {
+        sentIds.add(ids);
+        sentItems.add(items);
+    }
+
+    private void assertBatchSizes(int... sizes) {
+        assertEquals(sizes.length, sentItems.size());
+        for (int i = 0; i < sizes.length; i++) {
+            assertEquals(sizes[i], sentItems.get(i).size());
+        }
+    }
+
+    private static String id(int i) {
+        return String.format("V5K%012d", i);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder value = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            value.append(c);
+        }
+        return value.toString();
+    }
+}
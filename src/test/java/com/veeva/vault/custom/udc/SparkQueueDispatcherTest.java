@@ -0,0 +1,293 @@
+package com.veeva.vault.custom.udc;
+
+import com.veeva.vault.sdk.api.core.LogService;
+import com.veeva.vault.sdk.api.core.ServiceLocator;
+import com.veeva.vault.sdk.api.core.VaultCollections;
+import com.veeva.vault.sdk.api.data.Record;
+import com.veeva.vault.sdk.api.json.JsonArrayBuilder;
+import com.veeva.vault.sdk.api.json.JsonObject;
+import com.veeva.vault.sdk.api.json.JsonObjectBuilder;
+import com.veeva.vault.sdk.api.json.JsonService;
+import com.veeva.vault.sdk.api.query.QueryExecutionRequest;
+import com.veeva.vault.sdk.api.query.QueryExecutionResponse;
+import com.veeva.vault.sdk.api.query.QueryExecutionResult;
+import com.veeva.vault.sdk.api.query.QueryOperation;
+import com.veeva.vault.sdk.api.query.QueryService;
+import com.veeva.vault.sdk.api.queue.Message;
+import com.veeva.vault.sdk.api.queue.PutMessageResponse;
+import com.veeva.vault.sdk.api.queue.QueueService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SparkQueueDispatcherTest {
+    private static final String OBJECT_NAME = "vsdk_loan_approval__c";
+    private static final String ROUND_ROBIN = "round_robin__c";
+    private static final String RECORD_ID_HASH = "record_id_hash__c";
+
+    // The Vault services only exist inside Vault, so they are mocks and VaultCollections lists are plain ArrayLists
+    private MockedStatic<VaultCollections> vaultCollections;
+    private MockedStatic<ServiceLocator> serviceLocator;
+    private final List<QueryExecutionResult> routes = new ArrayList<>();
+    private final List<Sent> sent = new ArrayList<>();
+    private final LogService logService = mock(LogService.class);
+
+    @BeforeEach
+    void mockVault() {
+        vaultCollections = mockStatic(VaultCollections.class);
+        vaultCollections.when(VaultCollections::newList).thenAnswer(invocation -> new ArrayList<>());
+        QueryService queryService = queryService();
+        QueueService queueService = queueService();
+        JsonService jsonService = jsonService();
+        serviceLocator = mockStatic(ServiceLocator.class);
+        serviceLocator.when(() -> ServiceLocator.locate(QueryService.class)).thenReturn(queryService);
+        serviceLocator.when(() -> ServiceLocator.locate(QueueService.class)).thenReturn(queueService);
+        serviceLocator.when(() -> ServiceLocator.locate(JsonService.class)).thenReturn(jsonService);
+        serviceLocator.when(() -> ServiceLocator.locate(LogService.class)).thenReturn(logService);
+    }
+
+    @AfterEach
+    void closeVault() {
+        serviceLocator.close();
+        vaultCollections.close();
+    }
+
+    @Test
+    void sendsPlainItemsToTheDefaultQueueWithoutRoutes() {
+        SparkQueueDispatcher dispatcher = dispatcher();
+        dispatcher.add(record("V5K1"));
+        dispatcher.add(record("V5K2"));
+
+        assertEquals(1, dispatcher.flush());
+        assertEquals("default_queue__c", sent.get(0).queueName);
+        assertEquals(Arrays.asList("V5K1", "V5K2"), sent.get(0).items);
+    }
+
+    @Test
+    void sendsEnrichedItemsToARouteThatAsksForThem() {
+        routes.add(route("queue_a__c", ROUND_ROBIN, true));
+        SparkQueueDispatcher dispatcher = dispatcher();
+        dispatcher.add(record("V5K1"));
+
+        dispatcher.flush();
+
+        assertEquals("queue_a__c", sent.get(0).queueName);
+        assertEquals(Collections.singletonList("{\"id\":\"V5K1\"}"), sent.get(0).items);
+    }
+
+    @Test
+    void rotatesEnrichedItemsOnlyWhenEveryRouteAsksForThem() {
+        routes.add(route("queue_a__c", ROUND_ROBIN, true));
+        routes.add(route("queue_b__c", ROUND_ROBIN, false));
+        SparkQueueDispatcher dispatcher = dispatcher();
+        dispatcher.add(record("V5K1"));
+
+        dispatcher.flush();
+
+        assertEquals(Collections.singletonList("V5K1"), sent.get(0).items);
+    }
+
+    @Test
+    void hashedShardsUseTheirOwnRoutesItems() {
+        routes.add(route("queue_a__c", RECORD_ID_HASH, true));
+        routes.add(route("queue_b__c", RECORD_ID_HASH, false));
+        SparkQueueDispatcher dispatcher = dispatcher();
+        for (int i = 0; i < 20; i++) {
+            dispatcher.add(record("V5K" + i));
+        }
+
+        assertEquals(2, dispatcher.flush());
+        for (Sent message : sent) {
+            for (String item : message.items) {
+                assertEquals("queue_a__c".equals(message.queueName), item.startsWith("{"), item);
+            }
+        }
+    }
+
+    @Test
+    void hashesARecordToTheSameShardEveryTime() {
+        routes.add(route("queue_a__c", RECORD_ID_HASH, false));
+        routes.add(route("queue_b__c", RECORD_ID_HASH, false));
+        routes.add(route("queue_c__c", RECORD_ID_HASH, false));
+        for (int execution = 0; execution < 2; execution++) {
+            SparkQueueDispatcher dispatcher = dispatcher();
+            dispatcher.add(record("V5K7"));
+            dispatcher.add(record("V5K8"));
+            dispatcher.flush();
+        }
+
+        Map<String, String> shards = new HashMap<>();
+        for (Sent message : sent) {
+            for (String item : message.items) {
+                String previous = shards.put(item, message.queueName);
+                assertTrue(previous == null || previous.equals(message.queueName), item);
+            }
+        }
+        assertEquals(2, shards.size());
+    }
+
+    @Test
+    void hashesPerRouteAndRotatesTheRestAcrossTheRoundRobinRoutes() {
+        routes.add(route("queue_a__c", RECORD_ID_HASH, false));
+        routes.add(route("queue_b__c", ROUND_ROBIN, false));
+        routes.add(route("queue_c__c", ROUND_ROBIN, false));
+        SparkQueueDispatcher dispatcher = dispatcher(2);
+        for (int i = 0; i < 30; i++) {
+            dispatcher.add(record("V5K" + i));
+        }
+        dispatcher.flush();
+
+        Map<String, Integer> messages = new HashMap<>();
+        for (Sent message : sent) {
+            messages.merge(message.queueName, 1, Integer::sum);
+            for (String item : message.items) {
+                boolean hashedToA = Math.floorMod(item.hashCode(), 3) == 0;
+                assertEquals(hashedToA, "queue_a__c".equals(message.queueName), item);
+            }
+        }
+        // The round-robin shards take turns, so neither gets more than one message more than the other
+        assertTrue(Math.abs(messages.get("queue_b__c") - messages.get("queue_c__c")) <= 1, messages.toString());
+    }
+
+    @Test
+    void logsTheMessagesQueuedAndFailedPerShard() {
+        routes.add(route("queue_a__c", ROUND_ROBIN, false));
+        routes.add(route("queue_b__c", ROUND_ROBIN, false));
+        routes.add(route("queue_c__c", ROUND_ROBIN, false));
+        SparkQueueDispatcher dispatcher = dispatcher(1);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.add(record("V5K" + i));
+        }
+
+        assertEquals(4, dispatcher.flush());
+
+        ArgumentCaptor<String> lines = ArgumentCaptor.forClass(String.class);
+        verify(logService, times(3)).info(lines.capture());
+        int queuedMessages = 0;
+        for (String line : lines.getAllValues()) {
+            assertTrue(line.endsWith(" message(s) queued, 0 failed"), line);
+            queuedMessages += Integer.parseInt(line.replaceAll(".*: (\\d+) message\\(s\\) queued.*", "$1"));
+        }
+        assertEquals(4, queuedMessages);
+    }
+
+    private SparkQueueDispatcher dispatcher() {
+        return dispatcher(500);
+    }
+
+    private SparkQueueDispatcher dispatcher(int maxItems) {
+        return new SparkQueueDispatcher(OBJECT_NAME, "Loan approval", "default_queue__c", "default_connection__c",
+                maxItems, 250 * 1024, mock(RecordStatusWriter.class));
+    }
+
+    private static Record record(String id) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("id", id);
+        fields.put("name__v", "Ann");
+        fields.put("loan_amount__c", new BigDecimal(1000));
+        fields.put("loan_period_months__c", Collections.singletonList("12_months__c"));
+        Record record = mock(Record.class);
+        when(record.getValue(anyString(), any())).thenAnswer(invocation -> fields.get(invocation.<String>getArgument(0)));
+        return record;
+    }
+
+    private static QueryExecutionResult route(String queueName, String routing, boolean enrichedItems) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("name__v", queueName);
+        fields.put("queue_name__c", queueName);
+        fields.put("connection_name__c", "connection__c");
+        fields.put("routing__c", Collections.singletonList(routing));
+        fields.put("enriched_items__c", enrichedItems);
+        QueryExecutionResult route = mock(QueryExecutionResult.class);
+        when(route.getValue(anyString(), any())).thenAnswer(invocation -> fields.get(invocation.<String>getArgument(0)));
+        return route;
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueryService queryService() {
+        QueryService queryService = mock(QueryService.class);
+        QueryExecutionRequest.Builder builder = mock(QueryExecutionRequest.Builder.class, RETURNS_SELF);
+        when(queryService.newQueryExecutionRequestBuilder()).thenReturn(builder);
+        when(queryService.query(any())).thenAnswer(query -> {
+            QueryOperation<QueryExecutionResponse> operation = mock(QueryOperation.class, RETURNS_SELF);
+            when(operation.onSuccess(any())).thenAnswer(invocation -> {
+                QueryExecutionResponse response = mock(QueryExecutionResponse.class);
+                when(response.streamResults()).thenAnswer(results -> routes.stream());
+                invocation.<Consumer<QueryExecutionResponse>>getArgument(0).accept(response);
+                return operation;
+            });
+            return operation;
+        });
+        return queryService;
+    }
+
+    private QueueService queueService() {
+        QueueService queueService = mock(QueueService.class);
+        PutMessageResponse queued = mock(PutMessageResponse.class);
+        when(queueService.putMessage(any())).thenReturn(queued);
+        when(queueService.newMessage(anyString())).thenAnswer(invocation -> {
+            Sent message = new Sent(invocation.getArgument(0));
+            Message spark = mock(Message.class, RETURNS_SELF);
+            when(spark.setMessageItems(any())).thenAnswer(items -> {
+                message.items = new ArrayList<>(items.<List<String>>getArgument(0));
+                return spark;
+            });
+            sent.add(message);
+            return spark;
+        });
+        return queueService;
+    }
+
+    // Enriched items are reduced to their id, which is enough to tell them from plain ids
+    private static JsonService jsonService() {
+        JsonService jsonService = mock(JsonService.class);
+        when(jsonService.newJsonArrayBuilder()).thenAnswer(invocation -> mock(JsonArrayBuilder.class, RETURNS_SELF));
+        when(jsonService.newJsonObjectBuilder()).thenAnswer(invocation -> {
+            JsonObjectBuilder builder = mock(JsonObjectBuilder.class, RETURNS_SELF);
+            JsonObject object = mock(JsonObject.class);
+            when(builder.setValue(anyString(), anyString())).thenAnswer(value -> {
+                if ("id".equals(value.getArgument(0))) {
+                    when(object.asString()).thenReturn("{\"id\":\"" + value.getArgument(1) + "\"}");
+                }
+                return builder;
+            });
+            when(builder.build()).thenReturn(object);
+            return builder;
+        });
+        return jsonService;
+    }
+
+    /*
+     * Sent is a message put on a queue
+     */
+    private static class Sent {
+        private final String queueName;
+        private List<String> items;
+
+        Sent(String queueName) {
+            this.queueName = queueName;
+        }
+    }
+}